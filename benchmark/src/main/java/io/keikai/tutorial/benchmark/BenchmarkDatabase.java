@@ -0,0 +1,158 @@
+package io.keikai.tutorial.benchmark;
+
+import io.keikai.tutorial.persistence.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.time.*;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.*;
+
+/**
+ * Prepare the database and the data for benchmarks. <br/>
+ * Each benchmark fork runs against its own in-memory database, see {@link #IN_MEMORY}.
+ */
+class BenchmarkDatabase {
+    /**
+     * JVM argument of a benchmark fork to replace the file database with an in-memory one
+     */
+    static final String IN_MEMORY = "-Dtutorial.db.url=jdbc:hsqldb:mem:benchmark;hsqldb.tx=mvcc";
+    static final String FORM_NAME = "Leave Application";
+    // the part changed when a user fills a form, other parts are the same as the template
+    static private final String FILLED_PART = "xl/worksheets/sheet1.xml";
+    static private final String[] OWNERS = {"Alice", "Bob", "Cathy", "David", "Emily"};
+    static private final int INSERT_BATCH_SIZE = 1000;
+    static private Map<String, byte[]> templateParts;
+    static private Path formFolder;
+
+    private BenchmarkDatabase() {
+    }
+
+    static void start() throws ClassNotFoundException {
+        start("file");
+    }
+
+    /**
+     * @param formStore the value of tutorial.form.store, forms are stored in a temporary folder deleted at shutdown.
+     * Call it before other tutorial classes are loaded, the configuration is read once.
+     */
+    static void start(String formStore) throws ClassNotFoundException {
+        try {
+            formFolder = Files.createTempDirectory("benchmark-forms");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.setProperty("tutorial.form.store", formStore);
+        System.setProperty("tutorial.form.folder", formFolder.toString());
+        ConnectionPool.start();
+        SchemaMigration.migrate();
+    }
+
+    static void shutdown() {
+        ConnectionPool.shutdown();
+        try (Stream<Path> files = Files.walk(formFolder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the ids of the inserted submissions, ids are generated by the database
+     */
+    static int[] insertSubmissions(int count) throws SQLException, IOException {
+        int[] ids = new int[count];
+        List<Submission> batch = new ArrayList<>(INSERT_BATCH_SIZE);
+        for (int n = 0; n < count; n++) {
+            batch.add(newSubmission(n));
+            if (batch.size() == INSERT_BATCH_SIZE || n == count - 1) {
+                WorkflowDao.insertAll(batch);
+                for (int i = 0; i < batch.size(); i++) {
+                    ids[n - batch.size() + 1 + i] = batch.get(i).getId();
+                }
+                batch.clear();
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * a submission with a real form, its filled sheet is unique like a form filled by a user
+     */
+    static Submission newSubmission(int n) throws IOException {
+        Submission submission = new Submission();
+        submission.setFormName(FORM_NAME);
+        submission.setOwner(OWNERS[n % OWNERS.length]);
+        submission.setState(Submission.State.values()[n % Submission.State.values().length]);
+        submission.setLastUpdate(LocalDateTime.now());
+        submission.setForm(newForm(n));
+        Map<String, Object> fields = submission.getFields();
+        fields.put("applicant", submission.getOwner());
+        fields.put("applyDate", LocalDate.now());
+        fields.put("days", (double) (n % 10 + 1));
+        fields.put("reason", "reason " + n);
+        return submission;
+    }
+
+    static private FormBuffer newForm(int n) throws IOException {
+        FormBuffer form = new FormBuffer();
+        try (ZipOutputStream zip = new ZipOutputStream(form)) {
+            for (Map.Entry<String, byte[]> part : loadTemplate().entrySet()) {
+                zip.putNextEntry(new ZipEntry(part.getKey()));
+                zip.write(part.getValue());
+                if (part.getKey().equals(FILLED_PART)) {
+                    // a comment after the root element keeps the xml valid
+                    zip.write(("<!-- submission " + n + " " + UUID.randomUUID() + " -->").getBytes("UTF-8"));
+                }
+                zip.closeEntry();
+            }
+        }
+        return form;
+    }
+
+    static private synchronized Map<String, byte[]> loadTemplate() throws IOException {
+        if (templateParts != null) {
+            return templateParts;
+        }
+        Map<String, byte[]> parts = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(BenchmarkDatabase.class.getResourceAsStream("/" + FORM_NAME + ".xlsx"))) {
+            ZipEntry entry;
+            byte[] buffer = new byte[8192];
+            while ((entry = zip.getNextEntry()) != null) {
+                ByteArrayOutputStream part = new ByteArrayOutputStream();
+                int n;
+                while ((n = zip.read(buffer)) != -1) {
+                    part.write(buffer, 0, n);
+                }
+                parts.put(entry.getName(), part.toByteArray());
+            }
+        }
+        templateParts = parts;
+        return parts;
+    }
+
+    /**
+     * insert expenses spread evenly over categories
+     */
+    static void insertExpenses(int count, int categories) {
+        List<Expense> batch = new ArrayList<>(INSERT_BATCH_SIZE);
+        for (int n = 0; n < count; n++) {
+            batch.add(newExpense(n, categories));
+            if (batch.size() == INSERT_BATCH_SIZE) {
+                SampleDataDao.insert(batch);
+                batch.clear();
+            }
+        }
+        SampleDataDao.insert(batch);
+    }
+
+    static Expense newExpense(int n, int categories) {
+        Expense expense = new Expense();
+        expense.setCategory("category " + n % categories);
+        expense.setQuantity(n % 5 + 1);
+        expense.setSubtotal((n % 5 + 1) * 100);
+        return expense;
+    }
+}
@@ -0,0 +1,159 @@
+package io.keikai.tutorial.benchmark;
+
+import io.keikai.client.api.*;
+import io.keikai.tutorial.app.*;
+import io.keikai.tutorial.persistence.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure populating records into cells against a {@link RecordingSpreadsheet}. Besides the time, the result
+ * reports the calls that would be sent to a Keikai server, the cells written, the rows inserted and the rows shifted
+ * per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {BenchmarkDatabase.IN_MEMORY, "-Xmx2g"})
+public class PopulationBenchmark {
+    static private final String BOOK_NAME = "app.xlsx";
+    static private final int STARTING_ROW = 5;
+    static private final int STARTING_COLUMN = 2;
+    static private final int COLUMN_COUNT = 5;
+    // the submission table of the template has 2 rows with a few used rows below it
+    static private final int INITIAL_TABLE_ROWS = 2;
+    static private final int LAST_ROW = STARTING_ROW + INITIAL_TABLE_ROWS + 10;
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    private List<Submission> submissions;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ClassNotFoundException {
+        submissions = new ArrayList<>(rows);
+        for (int n = 0; n < rows; n++) {
+            Submission submission = new Submission();
+            submission.setId(n + 1);
+            submission.setFormName(BenchmarkDatabase.FORM_NAME);
+            submission.setOwner("owner " + n % 5);
+            submission.setLastUpdate(LocalDateTime.now());
+            submissions.add(submission);
+        }
+        // one category per row, so the expense summary has as many rows
+        BenchmarkDatabase.start();
+        BenchmarkDatabase.insertExpenses(rows, rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkDatabase.shutdown();
+    }
+
+    /**
+     * report the recorded calls, cells and rows per operation as secondary results
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Calls {
+        public long remoteCalls;
+        public long cellsWritten;
+        public long rowsInserted;
+        public long rowsShifted;
+        RecordingSpreadsheet recorder;
+
+        @Setup(Level.Iteration)
+        public void create() {
+            recorder = new RecordingSpreadsheet(BOOK_NAME, LAST_ROW);
+        }
+
+        Spreadsheet spreadsheet() {
+            recorder.reset();
+            return recorder.getSpreadsheet();
+        }
+
+        void record() {
+            remoteCalls += recorder.calls;
+            cellsWritten += recorder.cells;
+            rowsInserted += recorder.rowsInserted;
+            rowsShifted += recorder.rowsShifted;
+        }
+    }
+
+    /**
+     * write rows in blocks as the submission list does
+     */
+    @Benchmark
+    public int tableWriter(Calls calls) {
+        Spreadsheet spreadsheet = calls.spreadsheet();
+        int nCalls = TableWriter.write(spreadsheet::getRange, STARTING_ROW, STARTING_COLUMN, COLUMN_COUNT,
+                submissions, MyWorkflow::toRow);
+        calls.record();
+        return nCalls;
+    }
+
+    /**
+     * the baseline, write one cell per call
+     */
+    @Benchmark
+    public int cellByCell(Calls calls) {
+        Spreadsheet spreadsheet = calls.spreadsheet();
+        int row = STARTING_ROW;
+        for (Submission submission : submissions) {
+            Object[] values = MyWorkflow.toRow(submission);
+            for (int c = 0; c < values.length; c++) {
+                spreadsheet.getRange(row, STARTING_COLUMN + c).setValue(values[c]);
+            }
+            row++;
+        }
+        calls.record();
+        return row;
+    }
+
+    /**
+     * grow the submission table to fit the records with one insertion, then fill it as the submission list does
+     */
+    @Benchmark
+    public int growTable(Calls calls) {
+        Spreadsheet spreadsheet = calls.spreadsheet();
+        int tableRows = TableWriter.growRows(spreadsheet::getRange, STARTING_ROW, INITIAL_TABLE_ROWS, submissions.size());
+        TableWriter.write(spreadsheet::getRange, STARTING_ROW, STARTING_COLUMN, COLUMN_COUNT,
+                submissions, MyWorkflow::toRow);
+        calls.record();
+        return tableRows;
+    }
+
+    /**
+     * the baseline, insert one row per call, each insertion shifts all rows below it again
+     */
+    @Benchmark
+    public int growTableRowByRow(Calls calls) {
+        Spreadsheet spreadsheet = calls.spreadsheet();
+        int tableRows = INITIAL_TABLE_ROWS;
+        for (; tableRows < submissions.size(); tableRows++) {
+            spreadsheet.getRange(STARTING_ROW + tableRows - 1, 0).getEntireRow()
+                    .insert(Range.InsertShiftDirection.ShiftDown, Range.InsertFormatOrigin.LeftOrAbove);
+        }
+        TableWriter.write(spreadsheet::getRange, STARTING_ROW, STARTING_COLUMN, COLUMN_COUNT,
+                submissions, MyWorkflow::toRow);
+        calls.record();
+        return tableRows;
+    }
+
+    /**
+     * load the expense summary from the database and populate it as the app page does
+     */
+    @Benchmark
+    public MyApp myApp(Calls calls) throws IOException, AbortedException {
+        MyApp app = new MyApp(calls.spreadsheet());
+        app.init(BOOK_NAME, new File(BOOK_NAME));
+        calls.record();
+        return app;
+    }
+}
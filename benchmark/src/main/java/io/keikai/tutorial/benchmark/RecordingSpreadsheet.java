@@ -0,0 +1,147 @@
+package io.keikai.tutorial.benchmark;
+
+import io.keikai.client.api.*;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * An in-memory {@link Spreadsheet} that doesn't connect to a Keikai server. It counts the calls that would be sent
+ * to a server and the cells written, so population code is measured without network latency and the number of
+ * round trips can be compared. <br/>
+ * It also simulates the used rows of the sheet, inserting rows shifts every used row below the insertion point, so
+ * the rows a server would move are counted. <br/>
+ * Getting a {@link Range} is not counted since a range is only a reference to cells.
+ */
+class RecordingSpreadsheet {
+    private final String bookName;
+    private final Spreadsheet spreadsheet;
+    private final int initialLastRow;
+    private int lastRow;
+    long calls = 0;
+    long cells = 0;
+    long rowsInserted = 0;
+    long rowsShifted = 0;
+
+    /**
+     * @param lastRow the last used row of the sheet
+     */
+    RecordingSpreadsheet(String bookName, int lastRow) {
+        this.bookName = bookName;
+        this.initialLastRow = lastRow;
+        this.lastRow = lastRow;
+        this.spreadsheet = (Spreadsheet) Proxy.newProxyInstance(Spreadsheet.class.getClassLoader(),
+                new Class[]{Spreadsheet.class}, this::invokeSpreadsheet);
+    }
+
+    Spreadsheet getSpreadsheet() {
+        return spreadsheet;
+    }
+
+    void reset() {
+        calls = 0;
+        cells = 0;
+        rowsInserted = 0;
+        rowsShifted = 0;
+        lastRow = initialLastRow;
+    }
+
+    private Object invokeSpreadsheet(Object proxy, Method method, Object[] args) {
+        if (method.getDeclaringClass() == Object.class) {
+            return invokeObject(proxy, method, args);
+        }
+        switch (method.getName()) {
+            case "getBookName":
+                return bookName;
+            case "getRange":
+                return newRange(args);
+            default:
+                calls++;
+                return defaultValue(method.getReturnType());
+        }
+    }
+
+    /**
+     * @param args the arguments of a getRange(), a range by an A1 reference is recorded at A1
+     */
+    private Range newRange(Object[] args) {
+        int[] position = {0, 0, 1, 1};
+        // skip the book name and the sheet index, or an A1 reference
+        int start = args[0] instanceof String ? Math.min(2, args.length) : 0;
+        for (int i = start; i < args.length && i - start < position.length; i++) {
+            position[i - start] = (Integer) args[i];
+        }
+        int rowCount = position[2];
+        int columnCount = position[3];
+        return (Range) Proxy.newProxyInstance(Range.class.getClassLoader(), new Class[]{Range.class},
+                (proxy, method, rangeArgs) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return invokeObject(proxy, method, rangeArgs);
+                    }
+                    switch (method.getName()) {
+                        case "getRow":
+                            return position[0];
+                        case "getColumn":
+                            return position[1];
+                        case "getLastRow":
+                            return position[0] + rowCount - 1;
+                        case "getLastColumn":
+                            return position[1] + columnCount - 1;
+                        case "getEntireRow":
+                            return proxy;
+                        case "setValue":
+                            calls++;
+                            cells++;
+                            return null;
+                        case "setValues":
+                            calls++;
+                            cells += ((Object[]) rangeArgs[0]).length;
+                            return null;
+                        case "insert":
+                            calls++;
+                            insertRows(position[0], rowCount);
+                            return null;
+                        default:
+                            calls++;
+                            return defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    /**
+     * insert rows by shifting down the used rows from the row
+     */
+    private void insertRows(int row, int rowCount) {
+        rowsInserted += rowCount;
+        if (row <= lastRow) {
+            rowsShifted += lastRow - row + 1;
+            lastRow += rowCount;
+        }
+    }
+
+    static private Object invokeObject(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return RecordingSpreadsheet.class.getSimpleName();
+        }
+    }
+
+    static private Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0d;
+        } else if (type == List.class) {
+            return Collections.emptyList();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,53 @@
+package io.keikai.tutorial.benchmark;
+
+import io.keikai.tutorial.persistence.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measure {@link SampleDataDao#queryByCategory()} at growing table sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {BenchmarkDatabase.IN_MEMORY, "-Xmx2g"})
+public class SampleDataDaoBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int expenses;
+
+    @Param({"10", "1000"})
+    public int categories;
+
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws ClassNotFoundException {
+        BenchmarkDatabase.start();
+        BenchmarkDatabase.insertExpenses(expenses, categories);
+        sequence.set(expenses);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkDatabase.shutdown();
+    }
+
+    @Benchmark
+    public List<Expense> queryByCategory() {
+        return SampleDataDao.queryByCategory();
+    }
+
+    /**
+     * an insert invalidates the cached summary, so the following query reads the database
+     */
+    @Benchmark
+    public List<Expense> insertThenQueryByCategory() {
+        SampleDataDao.insert(BenchmarkDatabase.newExpense(sequence.incrementAndGet(), categories));
+        return SampleDataDao.queryByCategory();
+    }
+}
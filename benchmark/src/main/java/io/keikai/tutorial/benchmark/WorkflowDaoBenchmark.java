@@ -0,0 +1,109 @@
+package io.keikai.tutorial.benchmark;
+
+import io.keikai.tutorial.persistence.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measure {@link WorkflowDao} against a table filled with a number of submissions. <br/>
+ * Inserted submissions stay in the table, so the table grows a little during a trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {BenchmarkDatabase.IN_MEMORY, "-Xmx4g"})
+public class WorkflowDaoBenchmark {
+    static private final int PAGE_SIZE = 20;
+
+    @Param({"1000", "10000", "100000"})
+    public int submissions;
+
+    @Param({"file", "database"})
+    public String formStore;
+
+    private final AtomicInteger sequence = new AtomicInteger();
+    private int[] ids;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ClassNotFoundException, SQLException, IOException {
+        BenchmarkDatabase.start(formStore);
+        ids = BenchmarkDatabase.insertSubmissions(submissions);
+        sequence.set(submissions);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkDatabase.shutdown();
+    }
+
+    /**
+     * a new submission for each insert, created outside the measured method
+     */
+    @State(Scope.Thread)
+    public static class NewSubmission {
+        Submission submission;
+
+        @Setup(Level.Invocation)
+        public void create(WorkflowDaoBenchmark benchmark) throws IOException {
+            submission = BenchmarkDatabase.newSubmission(benchmark.sequence.incrementAndGet());
+        }
+    }
+
+    @Benchmark
+    public Submission insert(NewSubmission newSubmission) {
+        WorkflowDao.insert(newSubmission.submission);
+        return newSubmission.submission;
+    }
+
+    @Benchmark
+    public List<Submission> queryAll() {
+        return WorkflowDao.queryAll();
+    }
+
+    @Benchmark
+    public List<Submission> queryFirstPage() {
+        return WorkflowDao.queryPage(null, null, null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Submission> queryFirstPageByState() {
+        return WorkflowDao.queryPage(Submission.State.WAITING, null, null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public long openForm() throws IOException {
+        long length = 0;
+        byte[] buffer = new byte[8192];
+        try (InputStream form = WorkflowDao.openForm(ids[ThreadLocalRandom.current().nextInt(ids.length)])) {
+            for (int n; (n = form.read(buffer)) > 0; ) {
+                length += n;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * supervisors browse the list while employees submit, readers shouldn't wait for writers
+     */
+    @Benchmark
+    @Group("concurrent")
+    @GroupThreads(4)
+    public List<Submission> concurrentQueryFirstPage() {
+        return WorkflowDao.queryPage(null, null, null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    @Group("concurrent")
+    @GroupThreads(2)
+    public Submission concurrentInsert(NewSubmission newSubmission) {
+        WorkflowDao.insert(newSubmission.submission);
+        return newSubmission.submission;
+    }
+}
@@ -0,0 +1,114 @@
+package io.keikai.tutorial.benchmark;
+
+import io.keikai.tutorial.persistence.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measure the throughput of {@link WorkflowDao} with 1, 2, 4 and 8 threads calling it at the same time. The score is
+ * the total operations per second of all threads, so it grows with the thread count as long as callers don't wait
+ * for each other. <br/>
+ * Each case has its own method since JMH fixes the thread count per method, the pool has enough connections for 8
+ * threads by default.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {BenchmarkDatabase.IN_MEMORY, "-Xmx4g"})
+public class WorkflowDaoScalingBenchmark {
+    static private final int PAGE_SIZE = 20;
+
+    @Param({"10000"})
+    public int submissions;
+
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws ClassNotFoundException, SQLException, IOException {
+        BenchmarkDatabase.start();
+        BenchmarkDatabase.insertSubmissions(submissions);
+        sequence.set(submissions);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkDatabase.shutdown();
+    }
+
+    /**
+     * a new submission for each insert, created outside the measured method
+     */
+    @State(Scope.Thread)
+    public static class NewSubmission {
+        Submission submission;
+
+        @Setup(Level.Invocation)
+        public void create(WorkflowDaoScalingBenchmark benchmark) throws IOException {
+            submission = BenchmarkDatabase.newSubmission(benchmark.sequence.incrementAndGet());
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<Submission> query1Thread() {
+        return queryFirstPage();
+    }
+
+    @Benchmark
+    @Threads(2)
+    public List<Submission> query2Threads() {
+        return queryFirstPage();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<Submission> query4Threads() {
+        return queryFirstPage();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public List<Submission> query8Threads() {
+        return queryFirstPage();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Submission insert1Thread(NewSubmission newSubmission) {
+        return insert(newSubmission);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public Submission insert2Threads(NewSubmission newSubmission) {
+        return insert(newSubmission);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Submission insert4Threads(NewSubmission newSubmission) {
+        return insert(newSubmission);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Submission insert8Threads(NewSubmission newSubmission) {
+        return insert(newSubmission);
+    }
+
+    static private List<Submission> queryFirstPage() {
+        return WorkflowDao.queryPage(null, null, null, PAGE_SIZE);
+    }
+
+    static private Submission insert(NewSubmission newSubmission) {
+        WorkflowDao.insert(newSubmission.submission);
+        return newSubmission.submission;
+    }
+}
@@ -1,20 +1,99 @@
 package io.keikai.tutorial;
 
 import java.io.File;
+import java.util.*;
 import java.util.logging.*;
 
 public class Configuration {
     public static final String DEFAULT_KEIKAI_SERVER = "http://localhost:8888";
+    /**
+     * Keikai servers to balance requests across, override with a comma-separated list
+     * e.g. -Dtutorial.keikai.servers=http://10.1.1.1:8888,http://10.1.1.2:8888
+     */
+    public static final List<String> KEIKAI_SERVERS = Collections.unmodifiableList(Arrays.asList(
+            System.getProperty("tutorial.keikai.servers", DEFAULT_KEIKAI_SERVER).split("\\s*,\\s*")));
     public static final String INTERNAL_FILE_FOLDER = "book";
+    /**
+     * probe Keikai servers in this interval, a server fails a probe if it doesn't respond within the connect timeout
+     */
+    public static final long KEIKAI_HEALTH_CHECK_INTERVAL_MS = Long.getLong("tutorial.keikai.healthCheckInterval", 5_000L);
+    public static final long KEIKAI_CONNECT_TIMEOUT_MS = Long.getLong("tutorial.keikai.connectTimeout", 2_000L);
+    public static final int KEIKAI_UNHEALTHY_THRESHOLD = Integer.getInteger("tutorial.keikai.unhealthyThreshold", 2);
+    /**
+     * a Keikai client call in a request, e.g. creating a client or importing a book, fails after this period
+     */
+    public static final long KEIKAI_CALL_TIMEOUT_MS = Long.getLong("tutorial.keikai.callTimeout", 30_000L);
     public static final String KEIKAI_JS = "keikaiJs";
+    public static final String KEIKAI_SERVER = "keikaiServer";
 
     /**
      * http://hsqldb.org/doc/guide/dbproperties-chapt.html
      * shutdown=true, Automatic Shutdown, shut down the database when the last connection is closed
+     * hsqldb.tx=mvcc, multi-version concurrency control, readers don't wait for writers and vice versa
+     * override it with -Dtutorial.db.url e.g. benchmarks run against an in-memory database
      */
-    public static final String HSQLDB_CONNECTION_STRING = "jdbc:hsqldb:file:database/tutorial;shutdown=true";
+    public static final String HSQLDB_CONNECTION_STRING = System.getProperty("tutorial.db.url",
+            "jdbc:hsqldb:file:database/tutorial;shutdown=true;hsqldb.tx=mvcc");
     public static final String JDBC_DRIVER = "org.hsqldb.jdbc.JDBCDriver";
+    /**
+     * connection pool settings, override them with system properties e.g. -Dtutorial.db.pool.size=20
+     */
+    public static final int DB_POOL_MAX_SIZE = Integer.getInteger("tutorial.db.pool.size", 10);
+    public static final long DB_POOL_TIMEOUT_MS = Long.getLong("tutorial.db.pool.timeout", 30_000L);
+    public static final int DB_VALIDATION_TIMEOUT_SECONDS = Integer.getInteger("tutorial.db.pool.validationTimeout", 5);
+    public static final long DB_LEAK_DETECTION_THRESHOLD_MS = Long.getLong("tutorial.db.pool.leakDetectionThreshold", 60_000L);
+    /**
+     * close a spreadsheet client if its browser doesn't connect in this period
+     */
+    public static final long CLIENT_CONNECT_TIMEOUT_MS = Long.getLong("tutorial.client.connectTimeout", 60_000L);
+    /**
+     * number of clients with a loaded default book kept by each servlet, 0 to disable the pool
+     */
+    public static final int CLIENT_POOL_SIZE = Integer.getInteger("tutorial.client.poolSize", 2);
+    /**
+     * discard a pooled client idle longer than this period
+     */
+    public static final long CLIENT_POOL_MAX_IDLE_MS = Long.getLong("tutorial.client.poolMaxIdle", 300_000L);
+    /**
+     * background submission writer settings
+     */
+    public static final String SUBMISSION_SPOOL_FOLDER = System.getProperty("tutorial.submission.spool", "database/spool");
+    public static final int SUBMISSION_QUEUE_CAPACITY = Integer.getInteger("tutorial.submission.queueCapacity", 100);
+    public static final int SUBMISSION_BATCH_SIZE = Integer.getInteger("tutorial.submission.batchSize", 50);
+    public static final long SUBMISSION_QUEUE_TIMEOUT_MS = Long.getLong("tutorial.submission.queueTimeout", 5_000L);
+    /**
+     * a spooled submission failing this many times is moved to the failed folder under the spool folder
+     */
+    public static final int SUBMISSION_MAX_ATTEMPTS = Integer.getInteger("tutorial.submission.maxAttempts", 3);
+    /**
+     * number of exports reading the database at the same time, each holds a pooled connection while reading
+     */
+    public static final int EXPORT_MAX_CONCURRENT = Integer.getInteger("tutorial.export.maxConcurrent",
+            Math.max(1, DB_POOL_MAX_SIZE / 4));
+    /**
+     * where submitted forms are stored: "file" keeps each form as a file under the folder, "database" keeps them in
+     * the table form_content. Forms stored before switching are still read from the other store. Other values fail
+     * the startup. A form stored by a rolled-back insert isn't referenced by any submission and isn't cleaned up.
+     */
+    public static final String FORM_STORE = oneOf("tutorial.form.store", "file", "database");
+    public static final String FORM_STORE_FOLDER = System.getProperty("tutorial.form.folder", "database/forms");
+    /**
+     * record timings of servlets, DAOs, and Keikai client calls, exposed at /metrics to local requests
+     */
+    public static final boolean METRICS_ENABLED = Boolean.getBoolean("tutorial.metrics.enabled");
+
 
+    /**
+     * @return the value of a system property, the first allowed value if it's not set
+     * @throws IllegalArgumentException if the value isn't allowed
+     */
+    static private String oneOf(String property, String... allowedValues) {
+        String value = System.getProperty(property, allowedValues[0]);
+        if (!Arrays.asList(allowedValues).contains(value)) {
+            throw new IllegalArgumentException("-D" + property + "=" + value + " should be one of " + Arrays.toString(allowedValues));
+        }
+        return value;
+    }
 
     static public void enableSocketIOLog() {
         Logger log = java.util.logging.Logger.getLogger("");
@@ -0,0 +1,193 @@
+package io.keikai.tutorial.app;
+
+import io.keikai.client.api.*;
+import io.keikai.client.api.ui.UiActivity;
+import io.keikai.tutorial.Configuration;
+import io.keikai.tutorial.metrics.Metrics;
+import org.slf4j.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Create and track every spreadsheet client. <br/>
+ * A client is closed when its browser disconnects. A client whose browser never connects (e.g. a user leaves
+ * before the page is loaded) is closed after {@link Configuration#CLIENT_CONNECT_TIMEOUT_MS}, so it doesn't leak.
+ * A client waiting in a pool is {@link State#POOLED} and isn't closed until it's checked out.
+ */
+public class ClientRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(ClientRegistry.class);
+
+    public enum State {
+        CREATED, POOLED, CONNECTED, CLOSED
+    }
+
+    private static final ConcurrentHashMap<Spreadsheet, Client> clients = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService reaper;
+
+    private ClientRegistry() {
+    }
+
+    static public synchronized void start() {
+        if (reaper != null) {
+            return;
+        }
+        reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "client-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, Configuration.CLIENT_CONNECT_TIMEOUT_MS / 4);
+        reaper.scheduleAtFixedRate(ClientRegistry::closeUnconnectedClients, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * stop reaping and close all clients
+     */
+    static public synchronized void shutdown() {
+        if (reaper != null) {
+            reaper.shutdownNow();
+            reaper = null;
+        }
+        logger.info("-> closing " + clients.size() + " spreadsheet clients");
+        for (Spreadsheet spreadsheet : new ArrayList<>(clients.keySet())) {
+            close(spreadsheet);
+        }
+    }
+
+    static public Spreadsheet newClient(String serverAddress) {
+        return register(Metrics.instrument(Keikai.newClient(serverAddress)), serverAddress);
+    }
+
+    static public Spreadsheet newClient(String serverAddress, Settings settings) {
+        return register(Metrics.instrument(Keikai.newClient(serverAddress, settings)), serverAddress);
+    }
+
+    static private Spreadsheet register(Spreadsheet spreadsheet, String serverAddress) {
+        Client client = new Client(serverAddress);
+        clients.put(spreadsheet, client);
+        // close spreadsheet Java client when a browser disconnects to keikai server to avoid memory leak
+        spreadsheet.setUiActivityCallback(new UiActivity() {
+            public void onConnect() {
+                client.state = State.CONNECTED;
+            }
+
+            public void onDisconnect() {
+                close(spreadsheet);
+            }
+        });
+        return spreadsheet;
+    }
+
+    /**
+     * mark a client as waiting in a pool
+     */
+    static public void park(Spreadsheet spreadsheet) {
+        Client client = clients.get(spreadsheet);
+        if (client != null) {
+            client.state = State.POOLED;
+        }
+    }
+
+    /**
+     * mark a pooled client as handed out to a request, its browser should connect within the timeout from now
+     */
+    static public void checkout(Spreadsheet spreadsheet) {
+        Client client = clients.get(spreadsheet);
+        if (client != null) {
+            client.createdAt = System.currentTimeMillis();
+            client.state = State.CREATED;
+        }
+    }
+
+    static public void close(Spreadsheet spreadsheet) {
+        Client client = clients.remove(spreadsheet);
+        if (client == null) {
+            return;
+        }
+        client.state = State.CLOSED;
+        try {
+            spreadsheet.close();
+        } catch (RuntimeException e) {
+            logger.warn("fail to close a spreadsheet client", e);
+        }
+        for (Runnable listener : client.closeListeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                logger.warn("a close listener fails", e);
+            }
+        }
+    }
+
+    /**
+     * run a listener when the client is closed, e.g. to unsubscribe from events. It's run right away if the client
+     * isn't live, and it might run twice if the client is closed concurrently, so it should be idempotent.
+     */
+    static public void addCloseListener(Spreadsheet spreadsheet, Runnable listener) {
+        Client client = clients.get(spreadsheet);
+        if (client != null) {
+            client.closeListeners.add(listener);
+        }
+        if (!isLive(spreadsheet)) {
+            listener.run();
+        }
+    }
+
+    static private void closeUnconnectedClients() {
+        long now = System.currentTimeMillis();
+        int nClosed = 0;
+        for (Map.Entry<Spreadsheet, Client> entry : clients.entrySet()) {
+            Client client = entry.getValue();
+            if (client.state == State.CREATED && now - client.createdAt > Configuration.CLIENT_CONNECT_TIMEOUT_MS) {
+                close(entry.getKey());
+                nClosed++;
+            }
+        }
+        if (nClosed > 0) {
+            logger.info("-> closed " + nClosed + " spreadsheet clients never connected, live clients: " + getLiveClientCount());
+        }
+    }
+
+    static public boolean isLive(Spreadsheet spreadsheet) {
+        return clients.containsKey(spreadsheet);
+    }
+
+    static public int getLiveClientCount() {
+        return clients.size();
+    }
+
+    static public int getClientCount(State state) {
+        int count = 0;
+        for (Client client : clients.values()) {
+            if (client.state == state) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of live clients connecting to a Keikai server
+     */
+    static public int getLiveClientCount(String serverAddress) {
+        int count = 0;
+        for (Client client : clients.values()) {
+            if (client.serverAddress.equals(serverAddress)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static private class Client {
+        private final String serverAddress;
+        private volatile long createdAt = System.currentTimeMillis();
+        private volatile State state = State.CREATED;
+        private final List<Runnable> closeListeners = new CopyOnWriteArrayList<>();
+
+        Client(String serverAddress) {
+            this.serverAddress = serverAddress;
+        }
+    }
+}
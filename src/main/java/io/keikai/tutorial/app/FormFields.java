@@ -0,0 +1,100 @@
+package io.keikai.tutorial.app;
+
+import io.keikai.client.api.Spreadsheet;
+import io.keikai.tutorial.persistence.Submission;
+
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Declare the cells of each form that are extracted into typed columns when a form is submitted,
+ * so reports over submissions can be done with SQL instead of re-importing every form.
+ */
+public class FormFields {
+    public enum Type {
+        TEXT, NUMBER, DATE
+    }
+
+    static private final LocalDate EXCEL_EPOCH = LocalDate.of(1899, 12, 30);
+    static private final Map<String, List<Field>> FIELDS = new HashMap<>();
+
+    static {
+        FIELDS.put("Leave Application", Arrays.asList(
+                new Field("applicant", "D7", Type.TEXT),
+                new Field("applyDate", "G4", Type.DATE),
+                new Field("from", "E4", Type.DATE),
+                new Field("to", "E5", Type.DATE),
+                new Field("days", "G5", Type.NUMBER),
+                new Field("reason", "D6", Type.TEXT)));
+        FIELDS.put("Business Trip Request", Arrays.asList(
+                new Field("applicant", "D4", Type.TEXT),
+                new Field("applyDate", "J4", Type.DATE),
+                new Field("destination", "D6", Type.TEXT),
+                new Field("from", "J6", Type.DATE),
+                new Field("to", "L6", Type.DATE),
+                new Field("client", "D8", Type.TEXT),
+                new Field("days", "J8", Type.NUMBER),
+                new Field("purpose", "D11", Type.TEXT),
+                new Field("projectNumber", "J12", Type.TEXT),
+                new Field("arrangement", "D14", Type.TEXT)));
+    }
+
+    private FormFields() {
+    }
+
+    /**
+     * read declared fields of a form from the active sheet
+     * @return field name to value (String, Double, or LocalDate), blank cells are skipped, a text longer than
+     * {@link Submission#MAX_TEXT_LENGTH} is truncated
+     */
+    static public Map<String, Object> extract(Spreadsheet spreadsheet, String formName) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (Field field : FIELDS.getOrDefault(formName, Collections.emptyList())) {
+            Object value = toValue(spreadsheet.getRange(field.cell).getValue(), field.type);
+            if (value != null) {
+                values.put(field.name, value);
+            }
+        }
+        return values;
+    }
+
+    static private Object toValue(Object cellValue, Type type) {
+        if (cellValue == null || cellValue.toString().trim().isEmpty()) {
+            return null;
+        }
+        switch (type) {
+            case NUMBER:
+                return cellValue instanceof Number ? ((Number) cellValue).doubleValue() : null;
+            case DATE:
+                return cellValue instanceof Number ? EXCEL_EPOCH.plusDays(((Number) cellValue).longValue()) : null;
+            default:
+                String text = cellValue instanceof Number && ((Number) cellValue).doubleValue() % 1 == 0
+                        ? String.valueOf(((Number) cellValue).longValue()) : cellValue.toString();
+                return truncate(text);
+        }
+    }
+
+    static private String truncate(String text) {
+        if (text.length() <= Submission.MAX_TEXT_LENGTH) {
+            return text;
+        }
+        int end = Submission.MAX_TEXT_LENGTH;
+        // don't split a surrogate pair
+        if (Character.isHighSurrogate(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.substring(0, end);
+    }
+
+    static private class Field {
+        private final String name;
+        private final String cell;
+        private final Type type;
+
+        Field(String name, String cell, Type type) {
+            this.name = name;
+            this.cell = cell;
+            this.type = type;
+        }
+    }
+}
@@ -2,7 +2,6 @@ package io.keikai.tutorial.app;
 
 import io.keikai.client.api.*;
 import io.keikai.client.api.event.*;
-import io.keikai.client.api.ui.UiActivity;
 import io.keikai.tutorial.persistence.*;
 
 import java.io.*;
@@ -15,19 +14,19 @@ public class MyApp {
     private Spreadsheet spreadsheet;
     private static final int CATEGORY_COLUMN = 1;
     private static final int STARTING_ROW = 3; //the row index that a user should start to input the expense record
+    private static final int INPUT_ROWS = 4; // number of rows for input expense records
+    private static final int INPUT_COLUMNS = 4; // category, quantity, unit cost, subtotal
     private int nExpense = 0; // number of user-input expense
 
     public MyApp(String keikaiServerAddress) {
-        spreadsheet = Keikai.newClient(keikaiServerAddress);
-        // close spreadsheet Java client when a browser disconnect to keikai server to avoid memory leak
-        spreadsheet.setUiActivityCallback(new UiActivity() {
-            public void onConnect() {
-            }
+        this(ClientRegistry.newClient(keikaiServerAddress));
+    }
 
-            public void onDisconnect() {
-                spreadsheet.close();
-            }
-        });
+    /**
+     * @param spreadsheet a client which might have loaded a book already, e.g. from a pool
+     */
+    public MyApp(Spreadsheet spreadsheet) {
+        this.spreadsheet = spreadsheet;
     }
 
     /**
@@ -39,8 +38,10 @@ public class MyApp {
         return spreadsheet.getURI(elementId);
     }
 
-    public void init(String bookName, File xlsxFile) throws FileNotFoundException, AbortedException {
-        spreadsheet.importAndReplace(bookName, xlsxFile);
+    public void init(String bookName, File xlsxFile) throws IOException, AbortedException {
+        if (!bookName.equals(spreadsheet.getBookName())) {
+            spreadsheet.importAndReplace(bookName, TemplateCache.open(xlsxFile));
+        }
         addEventListeners();
         loadExpenseToSheet();
     }
@@ -50,18 +51,10 @@ public class MyApp {
      */
     private void loadExpenseToSheet() {
         List<Expense> list = SampleDataDao.queryByCategory();
-        int row = 18;
-        int col = 0;
         String bookName = spreadsheet.getBookName();
-        for (Expense expense : list) {
-            Range categoryCell = spreadsheet.getRange(bookName, 0, row, col);
-            categoryCell.setValue(expense.getCategory());
-            Range quantityCell = spreadsheet.getRange(bookName, 0, row, col + 1);
-            quantityCell.setValue(expense.getQuantity());
-            Range subtotalCell = spreadsheet.getRange(bookName, 0, row, col + 2);
-            subtotalCell.setValue(expense.getSubtotal());
-            row++;
-        }
+        TableWriter.write((row, col, rowCount, colCount) -> spreadsheet.getRange(bookName, 0, row, col, rowCount, colCount),
+                18, 0, 3, list,
+                expense -> new Object[]{expense.getCategory(), expense.getQuantity(), expense.getSubtotal()});
     }
 
     private void addEventListeners() {
@@ -84,14 +77,18 @@ public class MyApp {
      * save expense list in a specific range into the database
      */
     private void saveExpense() {
-        for (int rowIndex = STARTING_ROW; rowIndex < STARTING_ROW + 4; rowIndex++) {
-            Expense expense = readExpense(rowIndex, CATEGORY_COLUMN);
+        // read the whole input block at once, values are listed row by row
+        List cellValues = spreadsheet.getRange(STARTING_ROW, CATEGORY_COLUMN, INPUT_ROWS, INPUT_COLUMNS).getValues();
+        List<Expense> expenses = new ArrayList<>(INPUT_ROWS);
+        for (int r = 0; r < INPUT_ROWS; r++) {
+            Expense expense = readExpense(cellValues.subList(r * INPUT_COLUMNS, (r + 1) * INPUT_COLUMNS));
             if (!validate(expense)) {
                 break;
             }
-            SampleDataDao.insert(expense);
-            nExpense++;
+            expenses.add(expense);
         }
+        SampleDataDao.insert(expenses);
+        nExpense += expenses.size();
         clearInputExpense();
     }
 
@@ -106,9 +103,11 @@ public class MyApp {
         spreadsheet.getRange(STARTING_ROW, 0, nExpense, 4).clearContents();
     }
 
-    private Expense readExpense(int row, int col) {
+    /**
+     * @param cellValues the values of a row in the input block
+     */
+    private Expense readExpense(List cellValues) {
         Expense expense = new Expense();
-        List cellValues = spreadsheet.getRange(row, col, 1, 4).getValues();
         Optional.ofNullable(cellValues.get(0)).ifPresent( cellValue ->{
             expense.setCategory(cellValue.toString());
         });
@@ -2,7 +2,6 @@ package io.keikai.tutorial.app;
 
 import io.keikai.client.api.*;
 import io.keikai.client.api.event.*;
-import io.keikai.client.api.ui.UiActivity;
 import io.keikai.util.Maps;
 
 import java.io.*;
@@ -15,25 +14,29 @@ public class MyEditor {
     private Spreadsheet spreadsheet;
 
     public MyEditor(String keikaiServerAddress) {
+        this(newClient(keikaiServerAddress));
+    }
+
+    /**
+     * @param spreadsheet a client created by {@link #newClient(String)} which might have loaded a book already
+     */
+    public MyEditor(Spreadsheet spreadsheet) {
+        this.spreadsheet = spreadsheet;
+    }
+
+    static public Spreadsheet newClient(String keikaiServerAddress) {
         // specify a custom toolbar settings
-        spreadsheet = Keikai.newClient(keikaiServerAddress, getSettings());
-        // close spreadsheet Java client when a browser disconnect to keikai server to avoid memory leak
-        spreadsheet.setUiActivityCallback(new UiActivity() {
-            public void onConnect() {
-            }
-
-            public void onDisconnect() {
-                spreadsheet.close();
-            }
-        });
+        return ClientRegistry.newClient(keikaiServerAddress, getSettings());
     }
 
     public String getJavaScriptURI(String elementId) {
         return spreadsheet.getURI(elementId);
     }
 
-    public void init(String bookName, File xlsxFile) throws FileNotFoundException, AbortedException {
-        spreadsheet.importAndReplace(bookName, xlsxFile);
+    public void init(String bookName, File xlsxFile) throws IOException, AbortedException {
+        if (!bookName.equals(spreadsheet.getBookName())) {
+            spreadsheet.importAndReplace(bookName, TemplateCache.open(xlsxFile));
+        }
     }
 
     /**
@@ -42,7 +45,7 @@ public class MyEditor {
      *
      * @return a custom toolbar config
      */
-    protected Settings getSettings() {
+    static protected Settings getSettings() {
         Settings settings = Settings.DEFAULT_SETTINGS.clone();
         String customToolbarConfig = "{\"items\": \"upload,newBook,exportToFile|" +
                 "paste,cut,copy|" +
@@ -12,9 +12,12 @@ import org.slf4j.*;
 import java.io.*;
 import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
- * implement the workflow logic
+ * implement the workflow logic <br/>
+ * Keikai event listeners and submission events run in different threads, every method changing the spreadsheet
+ * runs under the lock of this object, so a pushed submission event doesn't change a book the user has just left.
  *
  * @author Hawk Chen
  */
@@ -38,6 +41,24 @@ public class MyWorkflow {
     static private final int STARTING_COLUMN = 2;
     static private final int STARTING_ROW = 5;
     static private final String ROLE_CELL = "E6";
+    // show a message to a user above the form list or the submission list
+    static private final int NOTICE_ROW = 1;
+    static private final int PAGE_SIZE = 20;
+    // the table in the submission list sheet contains 2 rows initially for copying date format when inserting rows
+    static private final int INITIAL_TABLE_ROWS = 2;
+    // page controls are the cells above the submission table
+    static private final int PAGE_CONTROL_ROW = STARTING_ROW - 2;
+    static private final int PREVIOUS_PAGE_COLUMN = STARTING_COLUMN;
+    static private final int NEXT_PAGE_COLUMN = STARTING_COLUMN + 1;
+    static private final int PAGE_NUMBER_COLUMN = STARTING_COLUMN + 2;
+    static private final int STATE_FILTER_COLUMN = STARTING_COLUMN + 3;
+    static private final int OWNER_FILTER_COLUMN = STARTING_COLUMN + 4;
+    // run remote calls of a submit, e.g. export and reading fields, out of the Keikai event thread
+    static private final ExecutorService submitExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "workflow-submit");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private Spreadsheet spreadsheet;
     private boolean submissionPopulated = false;
@@ -45,29 +66,40 @@ public class MyWorkflow {
     private String entryBookName;
     private File entryFile;
     private Submission submissionToReview = null;
-
+    private String notice = null;
+    private List<Submission> submissionList = Collections.emptyList();
+    // index the shown submissions, so a click doesn't read the id cell from the server or scan the list
+    private volatile Map<Integer, Submission> submissionByRow = Collections.emptyMap();
+    private volatile Map<Integer, Integer> rowById = Collections.emptyMap();
+    private int tableRows = INITIAL_TABLE_ROWS;
+    // the last submission of the previous page for each page, null for the first page
+    private List<Submission> pageCursors = new ArrayList<>();
+    private int currentPage = 0;
+    private boolean hasNextPage = false;
+    private Submission.State stateFilter = null;
+    private String ownerFilter = null;
+    private final SubmissionEvents.Listener submissionEventListener = this::onSubmissionEvent;
 
     public MyWorkflow(String keikaiServerAddress) {
-        spreadsheet = Keikai.newClient(keikaiServerAddress);
-        // close spreadsheet Java client when a browser disconnects to keikai server to avoid memory leak
-        spreadsheet.setUiActivityCallback(new UiActivity() {
-            public void onConnect() {
-            }
+        this(ClientRegistry.newClient(keikaiServerAddress));
+    }
 
-            public void onDisconnect() {
-                spreadsheet.close();
-            }
-        });
+    /**
+     * @param spreadsheet a client which might have loaded the entry book already, e.g. from a pool
+     */
+    public MyWorkflow(Spreadsheet spreadsheet) {
+        this.spreadsheet = spreadsheet;
         spreadsheet.addExceptionHandler(throwable -> {
             logger.error("Oops! something wrong in Spreadsheet", throwable);
         });
+        ClientRegistry.addCloseListener(spreadsheet, () -> SubmissionEvents.unsubscribe(submissionEventListener));
     }
 
     public String getJavaScriptURI(String elementId) {
         return spreadsheet.getURI(elementId);
     }
 
-    public void init(String bookName, File xlsxFile) {
+    public synchronized void init(String bookName, File xlsxFile) {
         this.entryBookName = bookName;
         this.entryFile = xlsxFile;
         start();
@@ -80,19 +112,24 @@ public class MyWorkflow {
     private void start() {
         try {
             spreadsheet.clearEventListeners();
-            spreadsheet.importAndReplace(this.entryBookName, this.entryFile);
+            if (!this.entryBookName.equals(spreadsheet.getBookName())) {
+                spreadsheet.importAndReplace(this.entryBookName, TemplateCache.open(this.entryFile));
+            }
             submissionPopulated = false;
+            tableRows = INITIAL_TABLE_ROWS;
             addEnterLeaveListeners();
-        } catch (FileNotFoundException | AbortedException e) {
+        } catch (IOException | AbortedException e) {
             logger.error("An error happens at starting a workflow: " + e);
         }
     }
 
     private void addEnterLeaveListeners() {
         spreadsheet.getWorksheet(SHEET_MAIN).getButton(BUTTON_ENTER).addAction(shapeMouseEvent -> {
-            this.role = spreadsheet.getRange(ROLE_CELL).getValue().toString();
-            navigateByRole();
-            showList();
+            synchronized (this) {
+                this.role = spreadsheet.getRange(ROLE_CELL).getValue().toString();
+                navigateByRole();
+                showList();
+            }
         });
         spreadsheet.getWorksheet(SHEET_FORM).getButton(BUTTON_LEAVE).addAction(shapeMouseEvent -> {
             leave();
@@ -102,16 +139,25 @@ public class MyWorkflow {
         });
     }
 
-    private void showForm(File formFile) throws FileNotFoundException, AbortedException {
+    private void showForm(File formFile) throws IOException, AbortedException {
         spreadsheet.clearEventListeners();
-        spreadsheet.importAndReplace(formFile.getName(), formFile);
+        spreadsheet.importAndReplace(formFile.getName(), TemplateCache.open(formFile));
         setupButtonsUponRole(spreadsheet.getWorksheet());
     }
 
 
-    private void showSubmittedForm(Submission s) throws AbortedException {
-        spreadsheet.clearEventListeners();
-        spreadsheet.importAndReplace(s.getFormName(), new ByteArrayInputStream(s.getForm().toByteArray()));
+    /**
+     * stream the form content of the submission from the database into Keikai, the submission list only contains metadata.
+     */
+    private void showSubmittedForm(Submission s) throws IOException, AbortedException {
+        try (InputStream form = WorkflowDao.openForm(s.getId())) {
+            if (form == null) {
+                logger.error("The form of submission " + s.getId() + " doesn't exist");
+                return;
+            }
+            spreadsheet.clearEventListeners();
+            spreadsheet.importAndReplace(s.getFormName(), form);
+        }
         setupButtonsUponRole(spreadsheet.getWorksheet());
         spreadsheet.getWorksheet().protect(new SheetProtection.Builder().build());
     }
@@ -127,11 +173,22 @@ public class MyWorkflow {
             approve.setVisible(false);
             reject.setVisible(false);
             cancel.addAction(shapeMouseEvent -> {
-                navigateTo(SHEET_FORM);
+                synchronized (this) {
+                    navigateTo(SHEET_FORM);
+                }
             });
             submit.addAction(shapeMouseEvent -> {
-                submit();
-                navigateTo(SHEET_FORM);
+                submitExecutor.execute(() -> {
+                    synchronized (this) {
+                        try {
+                            submit();
+                        } catch (RuntimeException e) {
+                            logger.error("fail to submit a form of " + role, e);
+                            notice = "Fail to submit the form, please fill it and submit again.";
+                        }
+                        navigateTo(SHEET_FORM);
+                    }
+                });
             });
         } else {
             submit.setVisible(false);
@@ -139,41 +196,82 @@ public class MyWorkflow {
             approve.setVisible(true);
             reject.setVisible(true);
             approve.addAction(shapeMouseEvent -> {
-                approve();
-                navigateTo(SHEET_SUBMISSION);
+                synchronized (this) {
+                    approve();
+                    navigateTo(SHEET_SUBMISSION);
+                }
             });
             reject.addAction(shapeMouseEvent -> {
-                reject();
-                navigateTo(SHEET_SUBMISSION);
+                synchronized (this) {
+                    reject();
+                    navigateTo(SHEET_SUBMISSION);
+                }
             });
         }
     }
 
     private void reject() {
-        submissionToReview.setLastUpdate(LocalDateTime.now());
-        submissionToReview.setState(Submission.State.REJECTED);
-        WorkflowDao.update(submissionToReview);
-        submissionToReview = null;
+        review(Submission.State.REJECTED);
     }
 
     private void approve() {
+        review(Submission.State.APPROVED);
+    }
+
+    /**
+     * change the state of the submission under review unless another supervisor has reviewed it
+     */
+    private void review(Submission.State state) {
         submissionToReview.setLastUpdate(LocalDateTime.now());
-        submissionToReview.setState(Submission.State.APPROVED);
-        WorkflowDao.update(submissionToReview);
+        submissionToReview.setState(state);
+        if (!WorkflowDao.update(submissionToReview, Submission.State.WAITING)) {
+            notice = "Submission " + submissionToReview.getId() + " has been reviewed by another supervisor, your "
+                    + state.name().toLowerCase() + " is not applied.";
+        }
         submissionToReview = null;
     }
 
     /**
-     * submit a form and create a submission in the database
+     * submit a form and create a submission in the database in the background, the result is shown above the
+     * form list when the submission is committed or fails
      */
     private void submit() {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        spreadsheet.export(spreadsheet.getBookName(), outputStream);
+        FormBuffer form = new FormBuffer();
+        spreadsheet.export(spreadsheet.getBookName(), form);
         Submission submission = new Submission();
-        submission.setForm(outputStream);
+        submission.setForm(form);
         submission.setFormName(spreadsheet.getBookName().replace(XLSX, ""));
         submission.setOwner(this.role);
-        WorkflowDao.insert(submission);
+        submission.setFields(FormFields.extract(spreadsheet, submission.getFormName()));
+        SubmissionWriter.getInstance().submit(submission).whenComplete((committed, throwable) -> {
+            if (throwable == null) {
+                logger.info("submission " + committed.getId() + " of " + committed.getOwner() + " is committed");
+                showSubmitResult("Your " + committed.getFormName() + " is submitted as submission " + committed.getId() + ".");
+            } else {
+                logger.error("fail to commit a submission of " + submission.getOwner(), throwable);
+                showSubmitResult("Fail to save your " + submission.getFormName() + ", please fill it and submit again.");
+            }
+        });
+    }
+
+    /**
+     * show the result on the form list if it's shown, or keep it until the form list is shown next time
+     */
+    private synchronized void showSubmitResult(String message) {
+        notice = message;
+        if (!ClientRegistry.isLive(spreadsheet)) {
+            return;
+        }
+        if (ROLE_EMPLOYEE.equals(role)
+                && entryBookName.equals(spreadsheet.getBookName())
+                && spreadsheet.getWorksheet().getName().equals(SHEET_FORM)) {
+            Worksheet sheet = spreadsheet.getWorksheet();
+            if (sheet.isProtected()) {
+                sheet.unprotect("");
+            }
+            showNotice();
+            protectFormList(sheet);
+        }
     }
 
     /**
@@ -187,27 +285,37 @@ public class MyWorkflow {
                 sheet.unprotect("");
             }
             showFormList();
+            showNotice();
             addFormSelectionListener();
-            sheet.protect(new SheetProtection.Builder().setPassword("")
-                    .setAllowSelectLockedCells(true)
-                    .build());
+            protectFormList(sheet);
         } else { //supervisor
             if (!submissionPopulated) {
                 if (sheet.isProtected()) {
                     sheet.unprotect("");
                 }
                 showSubmissionList();
-                //allow filter and sorting
-                sheet.protect(new SheetProtection.Builder().setPassword("")
-                        .setAllowFiltering(true)
-                        .setAllowSorting(true)
-                        .setAllowSelectLockedCells(true)
-                        .build());
+                protectSubmissionList(sheet);
             }
         }
     }
 
-    private void leave() {
+    private void protectFormList(Worksheet sheet) {
+        sheet.protect(new SheetProtection.Builder().setPassword("")
+                .setAllowSelectLockedCells(true)
+                .build());
+    }
+
+    /**
+     * don't allow filter and sorting, they move rows away from the submissions indexed by row, so a click would open
+     * another submission. The page controls above the list filter and page submissions in the database instead.
+     */
+    private void protectSubmissionList(Worksheet sheet) {
+        sheet.protect(new SheetProtection.Builder().setPassword("")
+                .setAllowSelectLockedCells(true)
+                .build());
+    }
+
+    private synchronized void leave() {
         role = null;
         navigateTo(SHEET_MAIN);
     }
@@ -218,12 +326,14 @@ public class MyWorkflow {
             @Override
             public void onEvent(RangeEvent rangeEvent) throws Exception {
                 int fileIndex = rangeEvent.getRow() - STARTING_ROW;
-                if (spreadsheet.getWorksheet().getName().equals(SHEET_FORM)
-                        && rangeEvent.getColumn() == 2
-                        && rangeEvent.getRow() >= STARTING_ROW
-                        && fileIndex < AppContextListener.getFormList().size()) {
-                    File form = AppContextListener.getFormList().get(fileIndex);
-                    showForm(form);
+                synchronized (MyWorkflow.this) {
+                    if (spreadsheet.getWorksheet().getName().equals(SHEET_FORM)
+                            && rangeEvent.getColumn() == 2
+                            && rangeEvent.getRow() >= STARTING_ROW
+                            && fileIndex < AppContextListener.getFormList().size()) {
+                        File form = AppContextListener.getFormList().get(fileIndex);
+                        showForm(form);
+                    }
                 }
             }
         };
@@ -231,55 +341,43 @@ public class MyWorkflow {
     }
 
     private void showFormList() {
-        int row = STARTING_ROW;
-        for (File file : AppContextListener.getFormList()) {
-            spreadsheet.getRange(row, STARTING_COLUMN).setValue(file.getName().replace(XLSX, ""));
-            row++;
-        }
+        TableWriter.write(spreadsheet::getRange, STARTING_ROW, STARTING_COLUMN, 1, AppContextListener.getFormList(),
+                file -> new Object[]{file.getName().replace(XLSX, "")});
     }
 
     /**
-     * populate submissions into cells from the database
+     * populate the first page of submissions into cells from the database
      */
     private void showSubmissionList() {
-        List<Submission> submissionList = WorkflowDao.queryAll();
-        //create table rows first
-        //the table contains 2 rows initially for copying date format when inserting rows
-        for (int r = STARTING_ROW + 1; r < (STARTING_ROW + 1) + submissionList.size() - 2; r++) {
-            spreadsheet.getRange(r, 0).getEntireRow().insert(Range.InsertShiftDirection.ShiftDown, Range.InsertFormatOrigin.LeftOrAbove);
-        }
-
-        int row = STARTING_ROW;
-        for (Submission s : submissionList) {
-            spreadsheet.getRange(row, STARTING_COLUMN).setValue(s.getId());
-            spreadsheet.getRange(row, STARTING_COLUMN + 1).setValue(s.getFormName());
-            spreadsheet.getRange(row, STARTING_COLUMN + 2).setValue(s.getOwner());
-            spreadsheet.getRange(row, STARTING_COLUMN + 3).setValue(s.getState());
-            spreadsheet.getRange(row, STARTING_COLUMN + 4).setValue(DateUtil.getExcelDate(Date.from(s.getLastUpdate().atZone(ZoneId.systemDefault()).toInstant())));
-            row++;
-        }
+        pageCursors.clear();
+        pageCursors.add(null);
+        currentPage = 0;
+        showSubmissionPage();
+        showNotice();
         submissionPopulated = true;
+        SubmissionEvents.subscribe(submissionEventListener);
 
         RangeEventListener submissionSelectionListener = new RangeEventListener() {
 
             @Override
             public void onEvent(RangeEvent rangeEvent) throws Exception {
-                if (!rangeEvent.getWorksheet().getName().equals(SHEET_SUBMISSION)
-                        || rangeEvent.getColumn() < 2
-                        || rangeEvent.getColumn() > 6
-                        || rangeEvent.getRow() < STARTING_ROW
-                        || rangeEvent.getRow() > (STARTING_ROW + submissionList.size()-1)) { //inside table columns
+                if (!rangeEvent.getWorksheet().getName().equals(SHEET_SUBMISSION)) {
                     return;
                 }
-                Range idCell = spreadsheet.getRange(rangeEvent.getRange().getRow(), STARTING_COLUMN);
-                int id = idCell.getRangeValue().getCellValue().getDoubleValue().intValue();
-                for (Submission s : submissionList) {
-                    if (s.getId() == id
-                            && s.getState() == Submission.State.WAITING) {
+                synchronized (MyWorkflow.this) {
+                    if (rangeEvent.getRow() == PAGE_CONTROL_ROW) {
+                        handlePageControl(rangeEvent.getColumn());
+                        return;
+                    }
+                    if (rangeEvent.getColumn() < 2
+                            || rangeEvent.getColumn() > 6) { //inside table columns
+                        return;
+                    }
+                    Submission s = submissionByRow.get(rangeEvent.getRow());
+                    if (s != null && s.getState() == Submission.State.WAITING) {
                         submissionToReview = s;
                         showSubmittedForm(s);
                         submissionPopulated = false;
-                        break;
                     }
                 }
             }
@@ -287,6 +385,194 @@ public class MyWorkflow {
         spreadsheet.addEventListener(Events.ON_CELL_CLICK, submissionSelectionListener);
     }
 
+    /**
+     * move to the previous or next page, or change a filter then show its first page
+     */
+    private synchronized void handlePageControl(int column) {
+        if (column == PREVIOUS_PAGE_COLUMN) {
+            if (currentPage == 0) {
+                return;
+            }
+            currentPage--;
+        } else if (column == NEXT_PAGE_COLUMN) {
+            if (!hasNextPage) {
+                return;
+            }
+            pageCursors.subList(currentPage + 1, pageCursors.size()).clear();
+            pageCursors.add(submissionList.get(submissionList.size() - 1));
+            currentPage++;
+        } else if (column == STATE_FILTER_COLUMN) {
+            stateFilter = nextStateFilter();
+            resetPaging();
+        } else if (column == OWNER_FILTER_COLUMN) {
+            ownerFilter = nextOwnerFilter();
+            resetPaging();
+        } else {
+            return;
+        }
+        Worksheet sheet = spreadsheet.getWorksheet();
+        if (sheet.isProtected()) {
+            sheet.unprotect("");
+        }
+        showSubmissionPage();
+        protectSubmissionList(sheet);
+    }
+
+    private void resetPaging() {
+        pageCursors.subList(1, pageCursors.size()).clear();
+        currentPage = 0;
+    }
+
+    /**
+     * cycle through all states, null means no filter
+     */
+    private Submission.State nextStateFilter() {
+        Submission.State[] states = Submission.State.values();
+        if (stateFilter == null) {
+            return states[0];
+        }
+        return stateFilter.ordinal() + 1 < states.length ? states[stateFilter.ordinal() + 1] : null;
+    }
+
+    /**
+     * cycle through all owners, null means no filter
+     */
+    private String nextOwnerFilter() {
+        List<String> owners = WorkflowDao.queryOwners();
+        int next = ownerFilter == null ? 0 : owners.indexOf(ownerFilter) + 1;
+        return next < owners.size() ? owners.get(next) : null;
+    }
+
+    /**
+     * populate the current page of submissions into cells, query one more submission to know if there is a next page
+     */
+    private synchronized void showSubmissionPage() {
+        List<Submission> page = WorkflowDao.queryPage(stateFilter, ownerFilter, pageCursors.get(currentPage), PAGE_SIZE + 1);
+        hasNextPage = page.size() > PAGE_SIZE;
+        submissionList = hasNextPage ? page.subList(0, PAGE_SIZE) : page;
+        renderSubmissionPage();
+    }
+
+    /**
+     * populate the submissions of the current page into cells
+     */
+    private void renderSubmissionPage() {
+        //create table rows first, insert all missing rows at once so rows below are shifted only once
+        tableRows = TableWriter.growRows(spreadsheet::getRange, STARTING_ROW, tableRows, submissionList.size());
+        spreadsheet.getRange(STARTING_ROW, STARTING_COLUMN, tableRows, 5).clearContents();
+
+        TableWriter.write(spreadsheet::getRange, STARTING_ROW, STARTING_COLUMN, 5, submissionList, MyWorkflow::toRow);
+        indexSubmissionList();
+        showPageControls();
+    }
+
+    private void indexSubmissionList() {
+        Map<Integer, Submission> byRow = new HashMap<>();
+        Map<Integer, Integer> byId = new HashMap<>();
+        for (int i = 0; i < submissionList.size(); i++) {
+            Submission s = submissionList.get(i);
+            byRow.put(STARTING_ROW + i, s);
+            byId.put(s.getId(), STARTING_ROW + i);
+        }
+        submissionByRow = byRow;
+        rowById = byId;
+    }
+
+    /**
+     * apply a committed change to the shown page instead of querying the whole page again, unless a shown submission
+     * no longer matches the filters, then query the page again to fill its place.
+     * If the supervisor isn't looking at the list, reload the list next time it's shown.
+     */
+    private synchronized void onSubmissionEvent(SubmissionEvents.Type type, Submission submission) {
+        if (!ClientRegistry.isLive(spreadsheet)) {
+            SubmissionEvents.unsubscribe(submissionEventListener);
+            return;
+        }
+        if (!isSubmissionListShown()) {
+            submissionPopulated = false;
+            return;
+        }
+        Submission changed = copyMetadata(submission);
+        List<Submission> page = new ArrayList<>(submissionList);
+        Integer row = rowById.get(changed.getId());
+        boolean requery = false;
+        if (row != null) {
+            if (matchesFilters(changed)) {
+                page.set(row - STARTING_ROW, changed);
+            } else {
+                // e.g. approved under the WAITING filter, the rest of the page moves up and the next page might change
+                requery = true;
+            }
+        } else if (type == SubmissionEvents.Type.INSERTED && currentPage == 0 && matchesFilters(changed)) {
+            // the newest submission is at the top of the first page
+            page.add(0, changed);
+            if (page.size() > PAGE_SIZE) {
+                page.remove(page.size() - 1);
+                hasNextPage = true;
+            }
+        } else {
+            return;
+        }
+        Worksheet sheet = spreadsheet.getWorksheet();
+        if (sheet.isProtected()) {
+            sheet.unprotect("");
+        }
+        if (requery) {
+            showSubmissionPage();
+        } else {
+            submissionList = page;
+            renderSubmissionPage();
+        }
+        protectSubmissionList(sheet);
+    }
+
+    private boolean isSubmissionListShown() {
+        return submissionPopulated
+                && role != null && !role.equals(ROLE_EMPLOYEE)
+                && entryBookName.equals(spreadsheet.getBookName())
+                && spreadsheet.getWorksheet().getName().equals(SHEET_SUBMISSION);
+    }
+
+    private boolean matchesFilters(Submission s) {
+        return (stateFilter == null || stateFilter == s.getState())
+                && (ownerFilter == null || ownerFilter.equals(s.getOwner()));
+    }
+
+    /**
+     * keep metadata only, not to hold form content in the list
+     */
+    static private Submission copyMetadata(Submission s) {
+        Submission metadata = new Submission();
+        metadata.setId(s.getId());
+        metadata.setFormName(s.getFormName());
+        metadata.setOwner(s.getOwner());
+        metadata.setState(s.getState());
+        metadata.setLastUpdate(s.getLastUpdate());
+        return metadata;
+    }
+
+    /**
+     * the cell values of a submission in the list
+     */
+    static public Object[] toRow(Submission s) {
+        return new Object[]{s.getId(), s.getFormName(), s.getOwner(), s.getState().name(),
+                DateUtil.getExcelDate(Date.from(s.getLastUpdate().atZone(ZoneId.systemDefault()).toInstant()))};
+    }
+
+    private void showNotice() {
+        spreadsheet.getRange(NOTICE_ROW, STARTING_COLUMN).setValue(notice == null ? "" : notice);
+        notice = null;
+    }
+
+    private void showPageControls() {
+        spreadsheet.getRange(PAGE_CONTROL_ROW, PREVIOUS_PAGE_COLUMN, 1, 5).setValues(
+                currentPage > 0 ? "< Previous" : "",
+                hasNextPage ? "Next >" : "",
+                "Page " + (currentPage + 1),
+                "State: " + (stateFilter == null ? "All" : stateFilter.name()),
+                "Owner: " + (ownerFilter == null ? "All" : ownerFilter));
+    }
+
     private void navigateByRole() {
         if (role.equals(ROLE_EMPLOYEE)) {
             spreadsheet.setActiveWorksheet(SHEET_FORM);
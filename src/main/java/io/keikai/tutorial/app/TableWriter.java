@@ -0,0 +1,71 @@
+package io.keikai.tutorial.app;
+
+import io.keikai.client.api.Range;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Populate a list of records into a rectangular block of cells. <br/>
+ * Instead of calling {@link Range#setValue(Object)} for each cell (one round trip per cell), it writes a block of
+ * rows with one {@link Range#setValues(Object...)} call, so 10k records only take a few round trips.
+ */
+public class TableWriter {
+    /**
+     * limit the cells sent in one call to keep a single message reasonably small
+     */
+    static final int MAX_CELLS_PER_CALL = 10_000;
+
+    /**
+     * get a range by its top-left cell and size, e.g. spreadsheet::getRange
+     */
+    public interface RangeProvider {
+        Range getRange(int row, int column, int rowCount, int columnCount);
+    }
+
+    private TableWriter() {
+    }
+
+    /**
+     * write records into the cells starting from (row, column), one record per row
+     * @param toRow convert a record into the cell values of a row, every row should have columnCount values
+     * @return the number of setValues calls
+     */
+    static public <T> int write(RangeProvider rangeProvider, int row, int column, int columnCount,
+                                List<T> records, Function<T, Object[]> toRow) {
+        if (records.isEmpty()) {
+            return 0;
+        }
+        int rowsPerCall = Math.max(1, MAX_CELLS_PER_CALL / columnCount);
+        int nCalls = 0;
+        Iterator<T> iterator = records.iterator();
+        int written = 0;
+        while (written < records.size()) {
+            int rowCount = Math.min(rowsPerCall, records.size() - written);
+            Object[] values = new Object[rowCount * columnCount];
+            for (int r = 0; r < rowCount; r++) {
+                Object[] rowValues = toRow.apply(iterator.next());
+                System.arraycopy(rowValues, 0, values, r * columnCount, columnCount);
+            }
+            rangeProvider.getRange(row + written, column, rowCount, columnCount).setValues(values);
+            written += rowCount;
+            nCalls++;
+        }
+        return nCalls;
+    }
+
+    /**
+     * grow a table of rowCount rows starting from row to requiredRows rows. All missing rows are inserted above the
+     * last row with one call, so rows below the table are shifted only once, and they copy the format of the row above.
+     * @return the number of rows of the table after growing
+     */
+    static public int growRows(RangeProvider rangeProvider, int row, int rowCount, int requiredRows) {
+        int missingRows = requiredRows - rowCount;
+        if (missingRows <= 0) {
+            return rowCount;
+        }
+        rangeProvider.getRange(row + rowCount - 1, 0, missingRows, 1).getEntireRow()
+                .insert(Range.InsertShiftDirection.ShiftDown, Range.InsertFormatOrigin.LeftOrAbove);
+        return requiredRows;
+    }
+}
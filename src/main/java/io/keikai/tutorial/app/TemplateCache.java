@@ -0,0 +1,56 @@
+package io.keikai.tutorial.app;
+
+import org.slf4j.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keep the content of xlsx templates (e.g. files under WEB-INF/book) in memory, so importing a book doesn't read
+ * the file from disk on every request. <br/>
+ * An entry is keyed by the file path and validated with the file's last modified time and length on each access,
+ * so a changed file is reloaded automatically.
+ */
+public class TemplateCache {
+    private static final Logger logger = LoggerFactory.getLogger(TemplateCache.class);
+    private static final ConcurrentHashMap<String, Template> cache = new ConcurrentHashMap<>();
+
+    private TemplateCache() {
+    }
+
+    /**
+     * @return a stream of the cached file content, reload it first if the file has changed.
+     */
+    static public InputStream open(File file) throws IOException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getAbsolutePath());
+        }
+        String key = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+        Template template = cache.get(key);
+        if (template == null || template.lastModified != lastModified || template.length != length) {
+            template = new Template(lastModified, length, Files.readAllBytes(file.toPath()));
+            cache.put(key, template);
+            logger.info("-> cached the template " + key);
+        }
+        return new ByteArrayInputStream(template.content);
+    }
+
+    static public void clear() {
+        cache.clear();
+    }
+
+    static private class Template {
+        private final long lastModified;
+        private final long length;
+        private final byte[] content;
+
+        Template(long lastModified, long length, byte[] content) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.content = content;
+        }
+    }
+}
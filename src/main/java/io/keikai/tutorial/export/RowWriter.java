@@ -0,0 +1,15 @@
+package io.keikai.tutorial.export;
+
+import io.keikai.tutorial.persistence.RowHandler;
+
+import java.io.IOException;
+
+/**
+ * Write rows to an output stream in a file format
+ */
+public interface RowWriter extends RowHandler {
+    /**
+     * write the remaining content after the last row, the output stream is not closed
+     */
+    void finish() throws IOException;
+}
@@ -0,0 +1,58 @@
+package io.keikai.tutorial.metrics;
+
+import io.keikai.client.api.*;
+
+import java.lang.reflect.*;
+
+/**
+ * Time each method call on a {@link Spreadsheet} and the {@link Range}s it returns, labeled by the method name,
+ * e.g. tutorial_keikai_call_seconds{method="Range.setValues"}
+ */
+class InstrumentedSpreadsheet implements InvocationHandler {
+    static private final String NAME = "tutorial_keikai_call";
+    static private final String HELP = "time of Keikai client calls";
+
+    private final Object target;
+    private final String type;
+
+    private InstrumentedSpreadsheet(Object target, String type) {
+        this.target = target;
+        this.type = type;
+    }
+
+    static Spreadsheet wrap(Spreadsheet spreadsheet) {
+        return (Spreadsheet) Proxy.newProxyInstance(Spreadsheet.class.getClassLoader(), new Class[]{Spreadsheet.class},
+                new InstrumentedSpreadsheet(spreadsheet, "Spreadsheet"));
+    }
+
+    static private Range wrap(Range range) {
+        return (Range) Proxy.newProxyInstance(Range.class.getClassLoader(), new Class[]{Range.class},
+                new InstrumentedSpreadsheet(range, "Range"));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            // a proxy is used as a map key, e.g. in ClientRegistry
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return type + "(" + target + ")";
+            }
+        }
+        Metrics.Timer timer = Metrics.timer(NAME, HELP, "method", type + "." + method.getName());
+        long start = Metrics.start();
+        try {
+            Object result = method.invoke(target, args);
+            return result instanceof Range ? wrap((Range) result) : result;
+        } catch (InvocationTargetException e) {
+            timer.error();
+            throw e.getCause();
+        } finally {
+            timer.stop(start);
+        }
+    }
+}
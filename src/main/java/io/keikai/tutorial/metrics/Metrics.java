@@ -0,0 +1,194 @@
+package io.keikai.tutorial.metrics;
+
+import io.keikai.client.api.Spreadsheet;
+import io.keikai.tutorial.Configuration;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Record timings and gauges in memory and write them in Prometheus text format. <br/>
+ * Disabled by default, enable it with -Dtutorial.metrics.enabled=true. When disabled, {@link #start()} doesn't read
+ * the clock and {@link Timer#stop(long)} does nothing, so instrumented code only pays a constant branch.
+ * <pre>
+ * long start = Metrics.start();
+ * try {
+ *     ...
+ * } finally {
+ *     timer.stop(start);
+ * }
+ * </pre>
+ */
+public class Metrics {
+    static public final boolean ENABLED = Configuration.METRICS_ENABLED;
+    /**
+     * the metric name of DAO method timings, shared by all DAOs and labelled by method
+     */
+    static public final String DAO_METRIC = "tutorial_dao";
+    /**
+     * histogram bucket upper bounds in seconds
+     */
+    static private final double[] BUCKETS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    static private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * @return the start time to pass to {@link Timer#stop(long)}
+     */
+    static public long start() {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * get or create a timer, it's written as a histogram {name}_seconds and a counter {name}_errors_total
+     * @param labels label name and value pairs, e.g. "method", "queryAll"
+     */
+    static public Timer timer(String name, String help, String... labels) {
+        Family family = families.computeIfAbsent(name, key -> new Family(name, help));
+        return family.timers.computeIfAbsent(toLabelString(labels), Timer::new);
+    }
+
+    /**
+     * register a value read when metrics are written, e.g. the number of active connections
+     */
+    static public void gauge(String name, String help, DoubleSupplier value) {
+        if (!ENABLED) {
+            return;
+        }
+        families.computeIfAbsent(name, key -> new Family(name, help)).gauge = value;
+    }
+
+    /**
+     * time each call on the spreadsheet and the ranges it returns
+     * @return the spreadsheet itself if metrics are disabled
+     */
+    static public Spreadsheet instrument(Spreadsheet spreadsheet) {
+        return ENABLED ? InstrumentedSpreadsheet.wrap(spreadsheet) : spreadsheet;
+    }
+
+    static private String toLabelString(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("labels should be name and value pairs");
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            builder.append(builder.length() == 0 ? "" : ",")
+                    .append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * write all metrics in Prometheus text format 0.0.4
+     */
+    static public void write(Writer writer) throws IOException {
+        for (Family family : families.values()) {
+            family.write(writer);
+        }
+    }
+
+    static public class Timer {
+        private final String labels;
+        private final LongAdder[] bucketCounts = new LongAdder[BUCKETS.length + 1];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        Timer(String labels) {
+            this.labels = labels;
+            for (int i = 0; i < bucketCounts.length; i++) {
+                bucketCounts[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * @param start the value returned by {@link Metrics#start()}
+         */
+        public void stop(long start) {
+            if (ENABLED) {
+                record(System.nanoTime() - start);
+            }
+        }
+
+        public void error() {
+            if (ENABLED) {
+                errors.increment();
+            }
+        }
+
+        void record(long nanos) {
+            double seconds = nanos / 1e9;
+            int bucket = 0;
+            while (bucket < BUCKETS.length && seconds > BUCKETS[bucket]) {
+                bucket++;
+            }
+            bucketCounts[bucket].increment();
+            count.increment();
+            totalNanos.add(nanos);
+        }
+    }
+
+    /**
+     * metrics of the same name with different labels
+     */
+    static private class Family {
+        private final String name;
+        private final String help;
+        private final ConcurrentMap<String, Timer> timers = new ConcurrentSkipListMap<>();
+        private volatile DoubleSupplier gauge;
+
+        Family(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        void write(Writer writer) throws IOException {
+            if (!timers.isEmpty()) {
+                writeHeader(writer, name + "_seconds", "histogram", help);
+                for (Timer timer : timers.values()) {
+                    long cumulative = 0;
+                    for (int i = 0; i < timer.bucketCounts.length; i++) {
+                        cumulative += timer.bucketCounts[i].sum();
+                        String le = i < BUCKETS.length ? String.valueOf(BUCKETS[i]) : "+Inf";
+                        writeSample(writer, name + "_seconds_bucket", join(timer.labels, "le=\"" + le + "\""), cumulative);
+                    }
+                    writeSample(writer, name + "_seconds_sum", timer.labels, timer.totalNanos.sum() / 1e9);
+                    writeSample(writer, name + "_seconds_count", timer.labels, timer.count.sum());
+                }
+                writeHeader(writer, name + "_errors_total", "counter", "failures counted with " + name + "_seconds");
+                for (Timer timer : timers.values()) {
+                    writeSample(writer, name + "_errors_total", timer.labels, timer.errors.sum());
+                }
+            }
+            DoubleSupplier value = gauge;
+            if (value != null) {
+                writeHeader(writer, name, "gauge", help);
+                writeSample(writer, name, "", value.getAsDouble());
+            }
+        }
+
+        static private void writeHeader(Writer writer, String metricName, String type, String help) throws IOException {
+            writer.write("# HELP " + metricName + " " + help + "\n");
+            writer.write("# TYPE " + metricName + " " + type + "\n");
+        }
+
+        static private void writeSample(Writer writer, String metricName, String labels, Number value) throws IOException {
+            writer.write(metricName);
+            if (!labels.isEmpty()) {
+                writer.write("{" + labels + "}");
+            }
+            writer.write(" " + value + "\n");
+        }
+
+        static private String join(String labels, String label) {
+            return labels.isEmpty() ? label : labels + "," + label;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package io.keikai.tutorial.persistence;
+
+import io.keikai.tutorial.Configuration;
+import org.slf4j.*;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A bounded JDBC connection pool shared by all DAOs. <br/>
+ * Calling {@link Connection#close()} on a borrowed connection returns it to the pool instead of closing it, so
+ * HSQLDB keeps the database open (see shutdown=true in {@link Configuration#HSQLDB_CONNECTION_STRING}) until
+ * {@link #shutdown()} closes the physical connections.
+ */
+public class ConnectionPool {
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+    private static volatile ConnectionPool instance;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final long timeoutMs;
+    private final long leakThresholdMs;
+
+    private final Semaphore permits;
+    private final BlockingDeque<Connection> idleConnections = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> activeConnections = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService leakDetector;
+    private volatile boolean closed = false;
+
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+
+    public ConnectionPool(String url, String user, String password, int maxSize, long timeoutMs, long leakThresholdMs) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.timeoutMs = timeoutMs;
+        this.leakThresholdMs = leakThresholdMs;
+        this.permits = new Semaphore(maxSize, true);
+        this.leakDetector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-leak-detector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, leakThresholdMs / 2);
+        leakDetector.scheduleAtFixedRate(this::detectLeaks, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * start the shared pool with the settings in {@link Configuration}
+     */
+    static public synchronized void start() throws ClassNotFoundException {
+        if (instance != null) {
+            return;
+        }
+        Class.forName(Configuration.JDBC_DRIVER);
+        instance = new ConnectionPool(Configuration.HSQLDB_CONNECTION_STRING, "SA", "",
+                Configuration.DB_POOL_MAX_SIZE, Configuration.DB_POOL_TIMEOUT_MS, Configuration.DB_LEAK_DETECTION_THRESHOLD_MS);
+        instance.enableMvcc();
+        logger.info("-> started a connection pool, max size " + Configuration.DB_POOL_MAX_SIZE);
+    }
+
+    /**
+     * hsqldb.tx in the connection string only applies to a newly created database, switch an existing one too.
+     */
+    private void enableMvcc() {
+        try (Connection con = getConnection();
+             Statement statement = con.createStatement();
+        ) {
+            statement.execute("SET DATABASE TRANSACTION CONTROL MVCC");
+        } catch (SQLException e) {
+            logger.warn("fail to switch the database to MVCC", e);
+        }
+    }
+
+    /**
+     * close the shared pool, the last closed connection shuts down the database.
+     */
+    static public synchronized void shutdown() {
+        if (instance != null) {
+            logger.info("-> closing a connection pool " + instance.getStats());
+            instance.close();
+            instance = null;
+        }
+    }
+
+    static public ConnectionPool getInstance() {
+        ConnectionPool pool = instance;
+        if (pool == null) {
+            throw new IllegalStateException("the connection pool is not started");
+        }
+        return pool;
+    }
+
+    /**
+     * borrow a connection, wait at most the configured timeout when all connections are in use.
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("the connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+                timeoutCount.incrementAndGet();
+                throw new SQLTimeoutException("no connection available in " + timeoutMs + " ms, " + getStats());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a connection", e);
+        }
+        recordWait(System.nanoTime() - start);
+        try {
+            PooledConnection pooled = new PooledConnection(takeValidConnection());
+            activeConnections.add(pooled);
+            return pooled.proxy;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private Connection takeValidConnection() throws SQLException {
+        Connection connection;
+        while ((connection = idleConnections.pollFirst()) != null) {
+            if (isValid(connection)) {
+                return connection;
+            }
+            closeQuietly(connection);
+        }
+        return DriverManager.getConnection(url, user, password);
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return !connection.isClosed() && connection.isValid(Configuration.DB_VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        if (!activeConnections.remove(pooled)) {
+            return;
+        }
+        Connection connection = pooled.connection;
+        try {
+            if (!closed && !connection.isClosed()) {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                idleConnections.offerFirst(connection);
+            } else {
+                closeQuietly(connection);
+            }
+        } catch (SQLException e) {
+            logger.warn("discard a broken connection", e);
+            closeQuietly(connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void recordWait(long nanos) {
+        waitCount.incrementAndGet();
+        totalWaitNanos.addAndGet(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private void detectLeaks() {
+        long now = System.currentTimeMillis();
+        for (PooledConnection pooled : activeConnections) {
+            if (!pooled.leakReported && now - pooled.borrowedAt > leakThresholdMs) {
+                pooled.leakReported = true;
+                leakCount.incrementAndGet();
+                logger.warn("a connection has been borrowed for " + (now - pooled.borrowedAt)
+                        + " ms without being closed, possible leak", pooled.borrowStack);
+            }
+        }
+    }
+
+    public void close() {
+        closed = true;
+        leakDetector.shutdownNow();
+        for (PooledConnection pooled : activeConnections) {
+            closeQuietly(pooled.connection);
+        }
+        activeConnections.clear();
+        Connection connection;
+        while ((connection = idleConnections.pollFirst()) != null) {
+            closeQuietly(connection);
+        }
+    }
+
+    private void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.warn("fail to close a connection", e);
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(activeConnections.size(), idleConnections.size(), maxSize, permits.getQueueLength(),
+                waitCount.get(), TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get()),
+                TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()), timeoutCount.get(), leakCount.get());
+    }
+
+    /**
+     * a borrowed connection, closing its proxy returns the physical connection to the pool.
+     */
+    private class PooledConnection implements InvocationHandler {
+        private final Connection connection;
+        private final Connection proxy;
+        private final long borrowedAt = System.currentTimeMillis();
+        private final Exception borrowStack = new Exception("the connection was borrowed here");
+        private volatile boolean leakReported = false;
+        private volatile boolean returned = false;
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.proxy = (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class[]{Connection.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + connection;
+            }
+            if (returned) {
+                throw new SQLException("the connection has been returned to the pool");
+            }
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * a snapshot of the pool usage
+     */
+    static public class Stats {
+        private final int active;
+        private final int idle;
+        private final int maxSize;
+        private final int waitingThreads;
+        private final long waitCount;
+        private final long totalWaitMillis;
+        private final long maxWaitMillis;
+        private final long timeoutCount;
+        private final long leakCount;
+
+        Stats(int active, int idle, int maxSize, int waitingThreads, long waitCount, long totalWaitMillis,
+              long maxWaitMillis, long timeoutCount, long leakCount) {
+            this.active = active;
+            this.idle = idle;
+            this.maxSize = maxSize;
+            this.waitingThreads = waitingThreads;
+            this.waitCount = waitCount;
+            this.totalWaitMillis = totalWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+            this.timeoutCount = timeoutCount;
+            this.leakCount = leakCount;
+        }
+
+        public int getActive() {
+            return active;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public int getWaitingThreads() {
+            return waitingThreads;
+        }
+
+        public long getWaitCount() {
+            return waitCount;
+        }
+
+        public long getTotalWaitMillis() {
+            return totalWaitMillis;
+        }
+
+        public long getMaxWaitMillis() {
+            return maxWaitMillis;
+        }
+
+        public long getTimeoutCount() {
+            return timeoutCount;
+        }
+
+        public long getLeakCount() {
+            return leakCount;
+        }
+
+        @Override
+        public String toString() {
+            return "active=" + active + ", idle=" + idle + ", max=" + maxSize + ", waiting=" + waitingThreads
+                    + ", waits=" + waitCount + ", totalWaitMs=" + totalWaitMillis + ", maxWaitMs=" + maxWaitMillis
+                    + ", timeouts=" + timeoutCount + ", leaks=" + leakCount;
+        }
+    }
+}
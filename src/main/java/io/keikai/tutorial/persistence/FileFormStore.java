@@ -0,0 +1,205 @@
+package io.keikai.tutorial.persistence;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.sql.Connection;
+
+/**
+ * Store each submitted xlsx as a file named by the SHA-256 of its content, e.g. database/forms/ab/ab12...ef.xlsx. <br/>
+ * The submission table only keeps the hash, so forms don't grow the database files or slow its checkpoints, and the
+ * folder can be backed up on its own. A form is read by mapping its file into memory, the OS pages the content in
+ * instead of copying it into the heap, and the mapping is released when the stream is closed. Change the folder with
+ * -Dtutorial.form.folder. <br/>
+ * A file stored by a rolled-back insert isn't referenced by any submission, it's kept since the same content might be
+ * stored again, and there is no cleanup of such files.
+ */
+public class FileFormStore implements FormStore {
+    static private final String EXTENSION = ".xlsx";
+    static private final Unmapper UNMAPPER = Unmapper.create();
+    private final Path folder;
+
+    public FileFormStore(File folder) {
+        this.folder = folder.toPath();
+    }
+
+    /**
+     * write the form to a temporary file while hashing it, then move it to the path of the hash.
+     * The file and its folder entry are forced to the disk before the submission referencing it is committed.
+     */
+    @Override
+    public String store(Connection con, FormContent xlsx) throws IOException {
+        Files.createDirectories(folder);
+        Path tempFile = Files.createTempFile(folder, "form", ".tmp");
+        try {
+            MessageDigest digest = FormArchive.newDigest();
+            try (InputStream inputStream = xlsx.openStream();
+                 FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = inputStream.read(buffer)) != -1) {
+                    digest.update(buffer, 0, n);
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, n);
+                    while (byteBuffer.hasRemaining()) {
+                        channel.write(byteBuffer);
+                    }
+                }
+                channel.force(true);
+            }
+            String hash = FormArchive.toHex(digest.digest());
+            Path file = pathOf(hash);
+            if (!Files.exists(file)) {
+                if (!Files.isDirectory(file.getParent())) {
+                    Files.createDirectories(file.getParent());
+                    FileSync.syncFolder(folder);
+                }
+                try {
+                    Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException e) {
+                    // stored by another submission concurrently
+                }
+                FileSync.syncFolder(file.getParent());
+            }
+            return hash;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * a file larger than a mapping can hold (2 GB) is read as a plain file stream
+     */
+    @Override
+    public InputStream open(Connection con, String hash) throws IOException {
+        Path file = pathOf(hash);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return new BufferedInputStream(Files.newInputStream(file));
+            }
+            // a mapping stays valid after its channel is closed
+            return new MappedInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean readsWithConnection() {
+        return false;
+    }
+
+    /**
+     * group files in sub-folders by the first 2 characters of the hash, so a folder doesn't hold too many files
+     */
+    private Path pathOf(String hash) {
+        return folder.resolve(hash.substring(0, 2)).resolve(hash + EXTENSION);
+    }
+
+    /**
+     * read a mapping and release it at {@link #close()} instead of waiting for GC, reading a released mapping would
+     * crash the JVM, so reading after closing fails and reading and closing are synchronized.
+     */
+    static private class MappedInputStream extends InputStream {
+        private final MappedByteBuffer buffer;
+        private boolean closed = false;
+
+        MappedInputStream(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            ensureOpen();
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public synchronized long skip(long n) throws IOException {
+            ensureOpen();
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public synchronized int available() throws IOException {
+            ensureOpen();
+            return buffer.remaining();
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                UNMAPPER.unmap(buffer);
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("the stream is closed");
+            }
+        }
+    }
+
+    /**
+     * release a mapping at once, Java doesn't provide a public API for it. Use sun.misc.Unsafe.invokeCleaner on
+     * Java 9+ or the cleaner of the buffer on Java 8. If neither is accessible, a mapping is released by GC.
+     */
+    static private class Unmapper {
+        private final Object target;
+        private final Method method;
+
+        private Unmapper(Object target, Method method) {
+            this.target = target;
+            this.method = method;
+        }
+
+        static Unmapper create() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                return new Unmapper(theUnsafe.get(null), invokeCleaner);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // Java 8, call the cleaner of each buffer
+                return new Unmapper(null, null);
+            }
+        }
+
+        void unmap(MappedByteBuffer buffer) {
+            try {
+                if (method != null) {
+                    method.invoke(target, buffer);
+                } else {
+                    Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                    cleanerMethod.setAccessible(true);
+                    Object cleaner = cleanerMethod.invoke(buffer);
+                    if (cleaner != null) {
+                        cleaner.getClass().getMethod("clean").invoke(cleaner);
+                    }
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // released by GC later
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package io.keikai.tutorial.persistence;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * force file system changes to the disk, so a file referenced by a committed row or a queued submission
+ * survives a crash
+ */
+class FileSync {
+    private FileSync() {
+    }
+
+    /**
+     * force the entries of a folder to the disk, e.g. after a file is renamed into it. Some platforms (Windows)
+     * can't open a folder as a channel, a file system there keeps entries durable by itself, so it's skipped.
+     */
+    static void syncFolder(Path folder) throws IOException {
+        try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // not supported on this platform
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package io.keikai.tutorial.persistence;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.sql.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Store a submitted xlsx as content-addressed, compressed parts. <br/>
+ * An xlsx is a zip file, and most of its entries (styles, theme, drawings, controls) are the same for every
+ * submission of a form. Each entry is stored once in the table {@link #TABLE_NAME}, keyed by the SHA-256 of its
+ * content and compressed with deflate, then a manifest listing entry names and hashes is stored the same way.
+ * A submission only keeps the hash of its manifest, the full xlsx is rebuilt from the parts while it's read.
+ * Each entry is hashed and compressed into a {@link SpillBuffer} while it's unzipped, so neither storing nor reading
+ * keeps a whole xlsx or a large entry in memory. <br/>
+ * Select it with -Dtutorial.form.store=database, the default is {@link FileFormStore}.
+ */
+public class FormArchive implements FormStore {
+    static final String TABLE_NAME = "form_content";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * split an xlsx into parts and store the parts not stored yet
+     * @return the hash of the form manifest
+     */
+    @Override
+    public String store(Connection con, FormContent xlsx) throws IOException, SQLException {
+        StringBuilder manifest = new StringBuilder();
+        try (ZipInputStream zipInputStream = new ZipInputStream(xlsx.openStream())) {
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                manifest.append(entry.getName()).append('\t').append(storeContent(con, zipInputStream)).append('\n');
+            }
+        }
+        return storeContent(con, new ByteArrayInputStream(manifest.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * open an xlsx rebuilt from its stored parts, parts are loaded with the connection while the stream is read,
+     * so the connection should be kept open until the stream is closed.
+     * @return null if the manifest doesn't exist
+     */
+    @Override
+    public InputStream open(Connection con, String manifestHash) throws IOException, SQLException {
+        byte[] manifest = loadContent(con, manifestHash);
+        if (manifest == null) {
+            return null;
+        }
+        List<String[]> parts = new ArrayList<>();
+        for (String line : new String(manifest, StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isEmpty()) {
+                parts.add(line.split("\t"));
+            }
+        }
+        return new FormInputStream(con, manifestHash, parts.iterator());
+    }
+
+    @Override
+    public boolean readsWithConnection() {
+        return true;
+    }
+
+    /**
+     * hash and compress content while reading it, then store it unless the hash is stored already
+     * @param content the stream isn't closed, so it can be an entry of a zip
+     */
+    static private String storeContent(Connection con, InputStream content) throws SQLException, IOException {
+        MessageDigest digest = newDigest();
+        try (SpillBuffer compressed = new SpillBuffer()) {
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try {
+                // finish instead of close, closing would close and delete the buffer
+                DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(compressed, deflater);
+                copy(new DigestInputStream(content, digest), deflaterOutputStream);
+                deflaterOutputStream.finish();
+            } finally {
+                deflater.end();
+            }
+            String hash = toHex(digest.digest());
+            try (PreparedStatement query = con.prepareStatement("SELECT 1 FROM " + TABLE_NAME + " WHERE hash=?")) {
+                query.setString(1, hash);
+                try (ResultSet resultSet = query.executeQuery()) {
+                    if (resultSet.next()) {
+                        return hash;
+                    }
+                }
+            }
+            try (PreparedStatement insert = con.prepareStatement("INSERT INTO " + TABLE_NAME + " (hash, content) VALUES(?, ?)");
+                 InputStream compressedStream = compressed.openStream()) {
+                insert.setString(1, hash);
+                insert.setBinaryStream(2, compressedStream, compressed.length());
+                insert.executeUpdate();
+            } catch (SQLIntegrityConstraintViolationException e) {
+                // stored by another submission concurrently
+            }
+            return hash;
+        }
+    }
+
+    static private byte[] loadContent(Connection con, String hash) throws SQLException, IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        return copyContent(con, hash, outputStream) ? outputStream.toByteArray() : null;
+    }
+
+    /**
+     * decompress stored content into an output stream
+     * @return false if the content doesn't exist
+     */
+    static private boolean copyContent(Connection con, String hash, OutputStream outputStream) throws SQLException, IOException {
+        try (PreparedStatement query = con.prepareStatement("SELECT content FROM " + TABLE_NAME + " WHERE hash=?")) {
+            query.setString(1, hash);
+            try (ResultSet resultSet = query.executeQuery()) {
+                if (!resultSet.next()) {
+                    return false;
+                }
+                try (InputStream inputStream = new InflaterInputStream(resultSet.getBinaryStream("content"))) {
+                    copy(inputStream, outputStream);
+                }
+                return true;
+            }
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] digest) {
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    static private void copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, n);
+        }
+    }
+
+    /**
+     * zip the parts of a form one by one when the buffered bytes are all read, only one compressed part is
+     * kept in memory at a time
+     */
+    static private class FormInputStream extends InputStream {
+        private final Connection con;
+        private final String manifestHash;
+        private final Iterator<String[]> parts;
+        private final PartBuffer buffer = new PartBuffer();
+        private final ZipOutputStream zipOutputStream = new ZipOutputStream(buffer);
+        private int position = 0;
+        private boolean finished = false;
+
+        FormInputStream(Connection con, String manifestHash, Iterator<String[]> parts) {
+            this.con = con;
+            this.manifestHash = manifestHash;
+            this.parts = parts;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position == buffer.size()) {
+                if (!fill()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, buffer.size() - position);
+            System.arraycopy(buffer.getBytes(), position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        /**
+         * @return false if all parts are read
+         */
+        private boolean fill() throws IOException {
+            if (finished) {
+                return false;
+            }
+            buffer.reset();
+            position = 0;
+            if (!parts.hasNext()) {
+                zipOutputStream.finish();
+                finished = true;
+                return true;
+            }
+            String[] nameAndHash = parts.next();
+            zipOutputStream.putNextEntry(new ZipEntry(nameAndHash[0]));
+            try {
+                if (!copyContent(con, nameAndHash[1], zipOutputStream)) {
+                    throw new IOException("missing the part " + nameAndHash[0] + " of the form " + manifestHash);
+                }
+            } catch (SQLException e) {
+                throw new IOException("fail to load the part " + nameAndHash[0] + " of the form " + manifestHash, e);
+            }
+            zipOutputStream.closeEntry();
+            return true;
+        }
+    }
+
+    static private class PartBuffer extends ByteArrayOutputStream {
+        byte[] getBytes() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package io.keikai.tutorial.persistence;
+
+import java.io.*;
+
+/**
+ * Keep an exported xlsx in memory and read it without copying the buffer, unlike {@link #toByteArray()}.
+ */
+public class FormBuffer extends ByteArrayOutputStream implements FormContent {
+    @Override
+    public InputStream openStream() {
+        return new ByteArrayInputStream(buf, 0, count);
+    }
+
+    @Override
+    public long length() {
+        return count;
+    }
+}
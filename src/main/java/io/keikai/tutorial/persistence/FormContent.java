@@ -0,0 +1,16 @@
+package io.keikai.tutorial.persistence;
+
+import java.io.*;
+
+/**
+ * The xlsx content of a submitted form, read as a stream so the content isn't copied into another byte array.
+ * Each call opens a new stream from the beginning, the caller should close it.
+ */
+public interface FormContent {
+    InputStream openStream() throws IOException;
+
+    /**
+     * @return the number of bytes
+     */
+    long length();
+}
@@ -0,0 +1,27 @@
+package io.keikai.tutorial.persistence;
+
+import java.io.*;
+import java.sql.*;
+
+/**
+ * Where {@link WorkflowDao} keeps submitted forms, the submission table only keeps the hash returned by
+ * {@link #store(Connection, FormContent)}. Select one with -Dtutorial.form.store=file|database.
+ */
+public interface FormStore {
+    /**
+     * store a form within the transaction of the connection, storing the same content again returns the same hash
+     * @return the hash to reference the form
+     */
+    String store(Connection con, FormContent xlsx) throws IOException, SQLException;
+
+    /**
+     * @return null if the form isn't in this store
+     */
+    InputStream open(Connection con, String hash) throws IOException, SQLException;
+
+    /**
+     * @return true if a stream returned by {@link #open(Connection, String)} reads with the connection, so the
+     * connection should be kept open until the stream is closed
+     */
+    boolean readsWithConnection();
+}
@@ -0,0 +1,18 @@
+package io.keikai.tutorial.persistence;
+
+import java.io.IOException;
+
+/**
+ * Receive the rows of a table one by one, so a large table is processed without loading it into memory.
+ */
+public interface RowHandler {
+    /**
+     * called once before the first row
+     */
+    void columns(String... names) throws IOException;
+
+    /**
+     * @param values String, Number, LocalDateTime or null, in the order of {@link #columns(String...)}
+     */
+    void row(Object... values) throws IOException;
+}
@@ -1,53 +1,43 @@
 package io.keikai.tutorial.persistence;
 
-import io.keikai.tutorial.Configuration;
-import io.keikai.tutorial.app.MyWorkflow;
-import org.hsqldb.cmdline.*;
+import io.keikai.tutorial.metrics.Metrics;
 import org.slf4j.*;
 
-import java.io.*;
-import java.net.URISyntaxException;
+import java.io.IOException;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Create adn close a connection for every query.
+ * Borrow a connection from {@link ConnectionPool} for every query and return it by closing it.
  */
 public class SampleDataDao {
     private static final Logger logger = LoggerFactory.getLogger(SampleDataDao.class);
     static final String TABLE_NAME = "tutorial";
+    static final String SUMMARY_TABLE_NAME = "tutorial_summary";
+    static private final AtomicReference<SummaryCache> summaryCache = new AtomicReference<>(new SummaryCache(0, null));
+    static private final Metrics.Timer queryByCategoryTimer = Metrics.timer(Metrics.DAO_METRIC,
+            "time of DAO methods", "method", "SampleDataDao.queryByCategory");
+    static private final Metrics.Timer insertTimer = Metrics.timer(Metrics.DAO_METRIC,
+            "time of DAO methods", "method", "SampleDataDao.insert");
+    static private final Metrics.Timer exportAllTimer = Metrics.timer(Metrics.DAO_METRIC,
+            "time of DAO methods", "method", "SampleDataDao.exportAll");
 
-    static public void initDatabase() {
-        try {
-            Class.forName(Configuration.JDBC_DRIVER);
-            try (Connection con = createConnection();) {
-                executeSqlFile(con);
-                logger.info("-> initialized a table " + TABLE_NAME);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    static Connection createConnection() {
-        try {
-            return DriverManager.getConnection(Configuration.HSQLDB_CONNECTION_STRING, "SA", "");
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return null;
-    }
-
-    static private void executeSqlFile(Connection con) throws IOException, URISyntaxException, SqlToolError, SQLException {
-        File inputFile = new File(SampleDataDao.class.getResource("/tutorial.sql").toURI());
-        SqlFile file = new SqlFile(inputFile);
-        file.setConnection(con);
-        file.execute();
+    static Connection createConnection() throws SQLException {
+        return ConnectionPool.getInstance().getConnection();
     }
 
+    /**
+     * read the per-category summary, maintained on insert, through an in-memory cache
+     */
     static public List<Expense> queryByCategory() {
-        String sql = "SELECT category, sum(quantity) as quantity, sum(subtotal) as subtotal FROM " + TABLE_NAME + " GROUP BY category";
+        SummaryCache cache = summaryCache.get();
+        if (cache.summary != null) {
+            return cache.summary;
+        }
+        String sql = "SELECT category, quantity, subtotal FROM " + SUMMARY_TABLE_NAME + " ORDER BY firstId";
         LinkedList<Expense> list = new LinkedList<>();
+        long start = Metrics.start();
         try (Connection con = createConnection();
              Statement statement = con.createStatement();
              ResultSet resultSet = statement.executeQuery(sql);
@@ -60,23 +50,104 @@ public class SampleDataDao {
                 list.add(expense);
             }
         } catch (SQLException e) {
+            queryByCategoryTimer.error();
             e.printStackTrace();
+            return list;
+        } finally {
+            queryByCategoryTimer.stop(start);
         }
-        return list;
+        List<Expense> summary = Collections.unmodifiableList(list);
+        // an insert replaces the cache with a new version, then a summary read before it committed isn't cached
+        summaryCache.compareAndSet(cache, new SummaryCache(cache.version, summary));
+        return summary;
     }
 
     static public void insert(Expense expense) {
+        insert(Collections.singletonList(expense));
+    }
+
+    /**
+     * insert expenses with one batch and add them to the category summary in one transaction
+     */
+    static public void insert(Collection<Expense> expenses) {
+        if (expenses.isEmpty()) {
+            return;
+        }
         String sql = "INSERT INTO " + TABLE_NAME + " (category, quantity, subtotal) VALUES( ?, ?, ?)";
+        long start = Metrics.start();
         try (Connection con = createConnection();
              PreparedStatement statement = con.prepareStatement(sql);
         ) {
-            statement.setString(1, expense.getCategory());
-            statement.setInt(2, expense.getQuantity());
-            statement.setInt(3, expense.getSubtotal());
-            statement.executeUpdate();
+            con.setAutoCommit(false);
+            for (Expense expense : expenses) {
+                statement.setString(1, expense.getCategory());
+                statement.setInt(2, expense.getQuantity());
+                statement.setInt(3, expense.getSubtotal());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            updateSummary(con, expenses);
+            con.commit();
         } catch (SQLException e) {
+            insertTimer.error();
             e.printStackTrace();
+        } finally {
+            summaryCache.updateAndGet(cache -> new SummaryCache(cache.version + 1, null));
+            insertTimer.stop(start);
+        }
+    }
+
+    /**
+     * stream all expenses in id order to a handler without loading them into memory
+     */
+    static public void exportAll(RowHandler handler) throws SQLException, IOException {
+        String sql = "SELECT id, category, quantity, subtotal FROM " + TABLE_NAME + " ORDER BY id";
+        long start = Metrics.start();
+        try {
+            TableCursor.stream(sql, new String[]{"ID", "Category", "Quantity", "Subtotal"}, handler);
+        } catch (SQLException e) {
+            // an IOException is a failure of the handler writing rows, not of the DAO
+            exportAllTimer.error();
+            throw e;
+        } finally {
+            exportAllTimer.stop(start);
         }
     }
 
+    static private void updateSummary(Connection con, Collection<Expense> expenses) throws SQLException {
+        Map<String, long[]> sums = new HashMap<>();
+        for (Expense expense : expenses) {
+            long[] sum = sums.computeIfAbsent(expense.getCategory(), category -> new long[2]);
+            sum[0] += expense.getQuantity();
+            sum[1] += expense.getSubtotal();
+        }
+        String sql = "MERGE INTO " + SUMMARY_TABLE_NAME + " s"
+                + " USING (VALUES(CAST(? AS VARCHAR(50)), CAST(? AS BIGINT), CAST(? AS BIGINT))) AS v(category, quantity, subtotal)"
+                + " ON s.category = v.category"
+                + " WHEN MATCHED THEN UPDATE SET s.quantity = s.quantity + v.quantity, s.subtotal = s.subtotal + v.subtotal"
+                + " WHEN NOT MATCHED THEN INSERT VALUES v.category, v.quantity, v.subtotal,"
+                + " (SELECT MIN(t.id) FROM " + TABLE_NAME + " t WHERE t.category = v.category)";
+        try (PreparedStatement statement = con.prepareStatement(sql)) {
+            for (Map.Entry<String, long[]> sum : sums.entrySet()) {
+                statement.setString(1, sum.getKey());
+                statement.setLong(2, sum.getValue()[0]);
+                statement.setLong(3, sum.getValue()[1]);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * a summary and the version of the summary table it's read from, null if it's not read yet
+     */
+    static private class SummaryCache {
+        private final long version;
+        private final List<Expense> summary;
+
+        SummaryCache(long version, List<Expense> summary) {
+            this.version = version;
+            this.summary = summary;
+        }
+    }
 }
@@ -0,0 +1,101 @@
+package io.keikai.tutorial.persistence;
+
+import org.hsqldb.cmdline.*;
+import org.slf4j.*;
+
+import java.io.*;
+import java.net.URL;
+import java.sql.*;
+
+/**
+ * Apply versioned SQL scripts under /db/migration in order, each script runs only once per database. <br/>
+ * Applied versions are recorded in the table {@link #TABLE_NAME}, so existing data is kept across restarts.
+ * To change the schema, add a new script and append it to {@link #MIGRATIONS} instead of editing an applied one. <br/>
+ * A script and its version are committed together, a failed script is rolled back and stops the application, so it
+ * doesn't run on a half-migrated schema. HSQLDB commits each DDL statement by itself, so a script with more than one
+ * DDL statement should be able to run again after a failure, e.g. with DROP ... IF EXISTS.
+ */
+public class SchemaMigration {
+    private static final Logger logger = LoggerFactory.getLogger(SchemaMigration.class);
+    static final String TABLE_NAME = "schema_version";
+    static final String MIGRATION_FOLDER = "/db/migration/";
+    /**
+     * script file names in version order, named V{version}__{description}.sql
+     */
+    static final String[] MIGRATIONS = {
+            "V1__create_tutorial.sql",
+            "V2__create_workflow.sql",
+            "V3__add_indexes.sql",
+            "V4__order_tutorial_summary.sql",
+            "V5__add_submission_spool_key.sql",
+    };
+
+    private SchemaMigration() {
+    }
+
+    /**
+     * @throws IllegalStateException if a script fails
+     */
+    static public void migrate() {
+        try (Connection con = ConnectionPool.getInstance().getConnection()) {
+            createVersionTable(con);
+            int currentVersion = queryCurrentVersion(con);
+            con.setAutoCommit(false);
+            for (String script : MIGRATIONS) {
+                int version = parseVersion(script);
+                if (version > currentVersion) {
+                    try {
+                        apply(con, version, script);
+                        con.commit();
+                    } catch (IOException | SqlToolError | SQLException e) {
+                        con.rollback();
+                        throw new IllegalStateException("fail to apply the schema migration " + script, e);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("fail to migrate the schema", e);
+        }
+    }
+
+    static private void createVersionTable(Connection con) throws SQLException {
+        try (ResultSet tables = con.getMetaData().getTables(null, null, TABLE_NAME.toUpperCase(), null)) {
+            if (tables.next()) {
+                return;
+            }
+        }
+        try (Statement statement = con.createStatement()) {
+            statement.execute("CREATE TABLE " + TABLE_NAME + " ("
+                    + "version INTEGER PRIMARY KEY, "
+                    + "script VARCHAR(100) NOT NULL, "
+                    + "installedOn TIMESTAMP NOT NULL)");
+        }
+    }
+
+    static private int queryCurrentVersion(Connection con) throws SQLException {
+        try (Statement statement = con.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT MAX(version) FROM " + TABLE_NAME)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    static private void apply(Connection con, int version, String script) throws IOException, SqlToolError, SQLException {
+        // read by URL, the script might be packed in a jar e.g. when running benchmarks
+        URL scriptUrl = SchemaMigration.class.getResource(MIGRATION_FOLDER + script);
+        SqlFile file = new SqlFile(scriptUrl);
+        file.setConnection(con);
+        file.execute();
+        try (PreparedStatement statement = con.prepareStatement("INSERT INTO " + TABLE_NAME + " (version, script, installedOn) VALUES(?, ?, ?)")) {
+            statement.setInt(1, version);
+            statement.setString(2, script);
+            statement.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+            statement.executeUpdate();
+        }
+        logger.info("-> applied the schema migration " + script);
+    }
+
+    static int parseVersion(String script) {
+        return Integer.parseInt(script.substring(1, script.indexOf("__")));
+    }
+}
@@ -0,0 +1,67 @@
+package io.keikai.tutorial.persistence;
+
+import java.io.*;
+
+/**
+ * Keep written bytes in memory up to {@link #MEMORY_THRESHOLD}, then move them to a temporary file, so content of
+ * any size can be read again without taking more memory than the threshold. Close it to delete the temporary file.
+ */
+class SpillBuffer extends OutputStream implements FormContent {
+    static final int MEMORY_THRESHOLD = 1 << 20;
+    private FormBuffer memory = new FormBuffer();
+    private File file;
+    private OutputStream fileStream;
+    private long length = 0;
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (file == null && memory.size() + len > MEMORY_THRESHOLD) {
+            spill();
+        }
+        if (file == null) {
+            memory.write(b, off, len);
+        } else {
+            fileStream.write(b, off, len);
+        }
+        length += len;
+    }
+
+    private void spill() throws IOException {
+        file = File.createTempFile("spill", ".tmp");
+        fileStream = new BufferedOutputStream(new FileOutputStream(file));
+        memory.writeTo(fileStream);
+        memory = null;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        if (file == null) {
+            return memory.openStream();
+        }
+        fileStream.flush();
+        return new BufferedInputStream(new FileInputStream(file));
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            try {
+                fileStream.close();
+            } finally {
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+            }
+        }
+    }
+}
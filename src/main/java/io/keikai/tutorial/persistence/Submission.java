@@ -1,7 +1,7 @@
 package io.keikai.tutorial.persistence;
 
-import java.io.*;
 import java.time.LocalDateTime;
+import java.util.*;
 
 /**
  * represent a form submission
@@ -11,12 +11,21 @@ public class Submission {
         WAITING, APPROVED, REJECTED
     }
 
+    /**
+     * the length of submission_field.textValue, a longer text field value fails the insert
+     */
+    static public final int MAX_TEXT_LENGTH = 1000;
+
     private int id;
     private State state = State.WAITING;
     private LocalDateTime lastUpdate = LocalDateTime.now();
-    private ByteArrayOutputStream form;
+    private FormContent form;
     private String formName;
     private String owner;
+    // values of declared form fields, String, Double, or LocalDate
+    private Map<String, Object> fields = new LinkedHashMap<>();
+    // the spool file it's written from, null if it's not spooled
+    private String spoolKey;
 
     public int getId() {
         return id;
@@ -42,11 +51,11 @@ public class Submission {
         this.lastUpdate = lastUpdate;
     }
 
-    public ByteArrayOutputStream getForm() {
+    public FormContent getForm() {
         return form;
     }
 
-    public void setForm(ByteArrayOutputStream form) {
+    public void setForm(FormContent form) {
         this.form = form;
     }
 
@@ -65,4 +74,20 @@ public class Submission {
     public void setOwner(String owner) {
         this.owner = owner;
     }
+
+    public Map<String, Object> getFields() {
+        return fields;
+    }
+
+    public void setFields(Map<String, Object> fields) {
+        this.fields = fields;
+    }
+
+    public String getSpoolKey() {
+        return spoolKey;
+    }
+
+    public void setSpoolKey(String spoolKey) {
+        this.spoolKey = spoolKey;
+    }
 }
@@ -0,0 +1,54 @@
+package io.keikai.tutorial.persistence;
+
+import org.slf4j.*;
+
+import java.util.concurrent.*;
+
+/**
+ * An in-process event bus for submission changes. {@link WorkflowDao} publishes an event after a change is
+ * committed, and a listener is notified in a background thread, so a slow listener doesn't block a writer.
+ */
+public class SubmissionEvents {
+    private static final Logger logger = LoggerFactory.getLogger(SubmissionEvents.class);
+
+    public enum Type {
+        INSERTED, UPDATED
+    }
+
+    public interface Listener {
+        void onEvent(Type type, Submission submission);
+    }
+
+    private static final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private static final ExecutorService dispatcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "submission-events");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private SubmissionEvents() {
+    }
+
+    static public void subscribe(Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    static public void unsubscribe(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    static void publish(Type type, Submission submission) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        dispatcher.execute(() -> {
+            for (Listener listener : listeners) {
+                try {
+                    listener.onEvent(type, submission);
+                } catch (RuntimeException e) {
+                    logger.warn("a submission listener fails", e);
+                }
+            }
+        });
+    }
+}
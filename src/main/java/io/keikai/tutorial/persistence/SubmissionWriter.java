@@ -0,0 +1,380 @@
+package io.keikai.tutorial.persistence;
+
+import io.keikai.tutorial.Configuration;
+import org.slf4j.*;
+
+import java.io.*;
+import java.sql.SQLException;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Write submissions in a background thread, so a user doesn't wait for the database after submitting a form. <br/>
+ * <ul>
+ * <li>durable: a submission is spooled to a file before it's queued and the file is deleted after the submission
+ * is committed. Spooled submissions left by a crash are written again at {@link #start()}, except the ones committed
+ * before the crash, a submission keeps its spool file name as a unique key.</li>
+ * <li>a spooled submission failing {@link Configuration#SUBMISSION_MAX_ATTEMPTS} times, e.g. with a value too long
+ * for its column, is moved to the failed folder instead of being retried at every start.</li>
+ * <li>batched: the writer drains queued submissions and inserts them in one transaction.</li>
+ * <li>back-pressure: the queue is bounded, when it's full a caller waits, then writes by itself if the queue
+ * is still full.</li>
+ * </ul>
+ */
+public class SubmissionWriter {
+    private static final Logger logger = LoggerFactory.getLogger(SubmissionWriter.class);
+    private static final String SPOOL_FILE_SUFFIX = ".submission";
+    private static final String FAILED_FOLDER = "failed";
+    private static final PendingSubmission STOP = new PendingSubmission(null, null);
+    private static SubmissionWriter instance;
+
+    private final BlockingQueue<PendingSubmission> queue;
+    private final File spoolFolder;
+    private final File failedFolder;
+    private final int batchSize;
+    private final Thread writerThread;
+
+    SubmissionWriter(File spoolFolder, int capacity, int batchSize) {
+        this.spoolFolder = spoolFolder;
+        this.failedFolder = new File(spoolFolder, FAILED_FOLDER);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.writerThread = new Thread(this::run, "submission-writer");
+        this.writerThread.setDaemon(true);
+    }
+
+    static public synchronized void start() {
+        if (instance != null) {
+            return;
+        }
+        instance = new SubmissionWriter(new File(Configuration.SUBMISSION_SPOOL_FOLDER),
+                Configuration.SUBMISSION_QUEUE_CAPACITY, Configuration.SUBMISSION_BATCH_SIZE);
+        instance.spoolFolder.mkdirs();
+        instance.writerThread.start();
+        instance.recover();
+    }
+
+    /**
+     * write all queued submissions then stop the writer
+     */
+    static public synchronized void shutdown() {
+        if (instance != null) {
+            instance.stop();
+            instance = null;
+        }
+    }
+
+    static public SubmissionWriter getInstance() {
+        SubmissionWriter writer = instance;
+        if (writer == null) {
+            throw new IllegalStateException("the submission writer is not started");
+        }
+        return writer;
+    }
+
+    /**
+     * queue a submission to be inserted
+     * @return a future completed after the submission is committed, with its id assigned
+     */
+    public CompletableFuture<Submission> submit(Submission submission) {
+        CompletableFuture<Submission> future = new CompletableFuture<>();
+        File spoolFile;
+        try {
+            spoolFile = spool(submission);
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        PendingSubmission pending = new PendingSubmission(submission, spoolFile, future);
+        try {
+            if (!queue.offer(pending, Configuration.SUBMISSION_QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                logger.warn("the submission queue is full, write a submission in the caller thread");
+                write(Collections.singletonList(pending));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // the spool file is kept and will be written at next start
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void run() {
+        List<PendingSubmission> batch = new ArrayList<>(batchSize);
+        while (true) {
+            try {
+                PendingSubmission first = queue.take();
+                if (first == STOP) {
+                    return;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                boolean stop = batch.remove(STOP);
+                write(batch);
+                batch.clear();
+                if (stop) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * insert a batch in one transaction, if it fails, insert one by one so that one broken submission doesn't fail the others.
+     */
+    private void write(List<PendingSubmission> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Submission> submissions = new ArrayList<>(batch.size());
+        for (PendingSubmission pending : batch) {
+            submissions.add(pending.submission);
+        }
+        try {
+            WorkflowDao.insertAll(submissions);
+            batch.forEach(PendingSubmission::committed);
+        } catch (SQLException | IOException | RuntimeException e) {
+            if (batch.size() == 1) {
+                failed(batch.get(0), e);
+                return;
+            }
+            for (PendingSubmission pending : batch) {
+                write(Collections.singletonList(pending));
+            }
+        }
+    }
+
+    /**
+     * keep the spool file to write it again at next start, the number of failed attempts is kept in its name,
+     * e.g. 1530000000000-uuid.2.submission. Move it to the failed folder after the last attempt.
+     */
+    private void failed(PendingSubmission pending, Exception e) {
+        File spoolFile = pending.spoolFile;
+        try {
+            // rejected by the unique key, it's committed before the last crash
+            if (WorkflowDao.isStored(pending.submission.getSpoolKey())) {
+                pending.committed();
+                return;
+            }
+        } catch (SQLException checkException) {
+            logger.error("fail to check a spooled submission " + spoolFile, checkException);
+        }
+        int attempts = attemptsOf(spoolFile) + 1;
+        File target;
+        if (attempts >= Configuration.SUBMISSION_MAX_ATTEMPTS) {
+            failedFolder.mkdirs();
+            target = new File(failedFolder, spoolKeyOf(spoolFile) + SPOOL_FILE_SUFFIX);
+        } else {
+            target = new File(spoolFolder, spoolKeyOf(spoolFile) + "." + attempts + SPOOL_FILE_SUFFIX);
+        }
+        if (spoolFile.renameTo(target)) {
+            logger.error("fail to write a submission " + attempts + " time(s), move its spool file to " + target, e);
+        } else {
+            logger.error("fail to write a submission, keep its spool file " + spoolFile, e);
+        }
+        pending.future.completeExceptionally(e);
+    }
+
+    /**
+     * the spool file name without the number of attempts and the suffix
+     */
+    static private String spoolKeyOf(File spoolFile) {
+        String name = spoolFile.getName();
+        return name.substring(0, name.indexOf('.'));
+    }
+
+    static private int attemptsOf(File spoolFile) {
+        String[] parts = spoolFile.getName().split("\\.");
+        return parts.length > 2 ? Integer.parseInt(parts[1]) : 0;
+    }
+
+    /**
+     * don't wait for a full queue longer than {@link Configuration#SUBMISSION_QUEUE_TIMEOUT_MS}, queued submissions
+     * are written from their spool files at next start
+     */
+    private void stop() {
+        try {
+            if (queue.offer(STOP, Configuration.SUBMISSION_QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                writerThread.join(Configuration.SUBMISSION_QUEUE_TIMEOUT_MS);
+            } else {
+                logger.warn("the submission queue is still full at shutdown, queued submissions are written at next start");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writerThread.interrupt();
+    }
+
+    /**
+     * queue spooled submissions that were not committed before the last shutdown, delete the spool files of
+     * submissions committed before their files were deleted
+     */
+    private void recover() {
+        File[] spoolFiles = spoolFolder.listFiles((dir, name) -> name.endsWith(SPOOL_FILE_SUFFIX));
+        if (spoolFiles == null) {
+            return;
+        }
+        Arrays.sort(spoolFiles, Comparator.comparing(File::getName));
+        for (File spoolFile : spoolFiles) {
+            try {
+                if (WorkflowDao.isStored(spoolKeyOf(spoolFile))) {
+                    logger.info("-> a spooled submission is committed already, delete " + spoolFile);
+                    if (!spoolFile.delete()) {
+                        logger.warn("fail to delete a spool file " + spoolFile);
+                    }
+                    continue;
+                }
+            } catch (SQLException e) {
+                // queue it anyway, the unique key rejects it if it's committed
+                logger.error("fail to check a spooled submission " + spoolFile, e);
+            }
+            try {
+                queue.put(new PendingSubmission(readSpool(spoolFile), spoolFile, new CompletableFuture<>()));
+                logger.info("-> recovered a spooled submission " + spoolFile);
+            } catch (IOException e) {
+                logger.error("fail to read a spooled submission " + spoolFile, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private File spool(Submission submission) throws IOException {
+        String spoolKey = System.currentTimeMillis() + "-" + UUID.randomUUID();
+        File spoolFile = new File(spoolFolder, spoolKey + SPOOL_FILE_SUFFIX);
+        // reject a text too long before it's accepted, it fails the insert and writeUTF() fails above 64 KB
+        for (Map.Entry<String, Object> field : submission.getFields().entrySet()) {
+            Object value = field.getValue();
+            if (!(value instanceof Number) && !(value instanceof LocalDate)
+                    && String.valueOf(value).length() > Submission.MAX_TEXT_LENGTH) {
+                throw new IOException("the field " + field.getKey() + " is longer than "
+                        + Submission.MAX_TEXT_LENGTH + " characters");
+            }
+        }
+        File tempFile = new File(spoolFolder, spoolFile.getName() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tempFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeUTF(submission.getFormName());
+            out.writeUTF(submission.getOwner());
+            out.writeUTF(submission.getState().name());
+            out.writeLong(submission.getLastUpdate().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+            out.writeInt(submission.getFields().size());
+            for (Map.Entry<String, Object> field : submission.getFields().entrySet()) {
+                out.writeUTF(field.getKey());
+                Object value = field.getValue();
+                if (value instanceof Number) {
+                    out.writeByte('N');
+                    out.writeDouble(((Number) value).doubleValue());
+                } else if (value instanceof LocalDate) {
+                    out.writeByte('D');
+                    out.writeLong(((LocalDate) value).toEpochDay());
+                } else {
+                    out.writeByte('T');
+                    out.writeUTF(String.valueOf(value));
+                }
+            }
+            // the form is the last, so it can be read from the end of the file without reading the fields again
+            FormContent form = submission.getForm();
+            if (form.length() > Integer.MAX_VALUE) {
+                throw new IOException("a form is too large to spool: " + form.length());
+            }
+            out.writeInt((int) form.length());
+            try (InputStream formInputStream = form.openStream()) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = formInputStream.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            // the content should be on the disk before the file is renamed and the submission is accepted
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        if (!tempFile.renameTo(spoolFile)) {
+            throw new IOException("fail to spool a submission to " + spoolFile);
+        }
+        FileSync.syncFolder(spoolFolder.toPath());
+        submission.setSpoolKey(spoolKey);
+        return spoolFile;
+    }
+
+    private Submission readSpool(File spoolFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spoolFile)))) {
+            Submission submission = new Submission();
+            submission.setSpoolKey(spoolKeyOf(spoolFile));
+            submission.setFormName(in.readUTF());
+            submission.setOwner(in.readUTF());
+            submission.setState(Submission.State.valueOf(in.readUTF()));
+            submission.setLastUpdate(LocalDateTime.ofInstant(Instant.ofEpochMilli(in.readLong()), ZoneId.systemDefault()));
+            int nFields = in.readInt();
+            for (int i = 0; i < nFields; i++) {
+                String name = in.readUTF();
+                byte type = in.readByte();
+                if (type == 'N') {
+                    submission.getFields().put(name, in.readDouble());
+                } else if (type == 'D') {
+                    submission.getFields().put(name, LocalDate.ofEpochDay(in.readLong()));
+                } else {
+                    submission.getFields().put(name, in.readUTF());
+                }
+            }
+            int formLength = in.readInt();
+            submission.setForm(new SpooledForm(spoolFile, spoolFile.length() - formLength, formLength));
+            return submission;
+        }
+    }
+
+    /**
+     * read a form from its spool file instead of loading it into memory
+     */
+    static private class SpooledForm implements FormContent {
+        private final File spoolFile;
+        private final long offset;
+        private final long length;
+
+        SpooledForm(File spoolFile, long offset, long length) {
+            this.spoolFile = spoolFile;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            FileInputStream inputStream = new FileInputStream(spoolFile);
+            inputStream.getChannel().position(offset);
+            return new BufferedInputStream(inputStream);
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+    }
+
+    static private class PendingSubmission {
+        private final Submission submission;
+        private final File spoolFile;
+        private final CompletableFuture<Submission> future;
+
+        PendingSubmission(Submission submission, File spoolFile) {
+            this(submission, spoolFile, null);
+        }
+
+        PendingSubmission(Submission submission, File spoolFile, CompletableFuture<Submission> future) {
+            this.submission = submission;
+            this.spoolFile = spoolFile;
+            this.future = future;
+        }
+
+        void committed() {
+            if (!spoolFile.delete()) {
+                logger.warn("fail to delete a spool file " + spoolFile);
+            }
+            future.complete(submission);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package io.keikai.tutorial.persistence;
+
+import java.io.IOException;
+import java.sql.*;
+
+/**
+ * Read a query result with a forward-only cursor and pass each row to a {@link RowHandler}. <br/>
+ * HSQLDB keeps a result in memory unless it's larger than the session's result memory rows, so a cursor limits it
+ * and the rest of a large result is kept on disk.
+ */
+class TableCursor {
+    static final int FETCH_SIZE = 1000;
+    static final int RESULT_MEMORY_ROWS = 10_000;
+
+    private TableCursor() {
+    }
+
+    /**
+     * @param columns the column names passed to {@link RowHandler#columns(String...)}, one for each selected column
+     */
+    static void stream(String sql, String[] columns, RowHandler handler) throws SQLException, IOException {
+        try (Connection con = ConnectionPool.getInstance().getConnection()) {
+            setResultMemoryRows(con, RESULT_MEMORY_ROWS);
+            try (PreparedStatement statement = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(FETCH_SIZE);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    handler.columns(columns);
+                    copy(resultSet, handler);
+                }
+            } catch (SQLException | IOException | RuntimeException e) {
+                resetResultMemoryRows(con, e);
+                throw e;
+            }
+            resetResultMemoryRows(con, null);
+        }
+    }
+
+    /**
+     * the connection returns to the pool, restore the default (no limit)
+     * @param failure the exception thrown by the query, a failure of resetting is added to it instead of replacing it
+     */
+    static private void resetResultMemoryRows(Connection con, Exception failure) throws SQLException {
+        try {
+            setResultMemoryRows(con, 0);
+        } catch (SQLException e) {
+            if (failure == null) {
+                throw e;
+            }
+            failure.addSuppressed(e);
+        }
+    }
+
+    static private void setResultMemoryRows(Connection con, int rows) throws SQLException {
+        try (Statement statement = con.createStatement()) {
+            statement.execute("SET SESSION RESULT MEMORY ROWS " + rows);
+        }
+    }
+
+    static private void copy(ResultSet resultSet, RowHandler handler) throws SQLException, IOException {
+        int columnCount = resultSet.getMetaData().getColumnCount();
+        Object[] values = new Object[columnCount];
+        while (resultSet.next()) {
+            for (int i = 0; i < columnCount; i++) {
+                Object value = resultSet.getObject(i + 1);
+                values[i] = value instanceof Timestamp ? ((Timestamp) value).toLocalDateTime() : value;
+            }
+            handler.row(values);
+        }
+    }
+}
@@ -1,104 +1,392 @@
 package io.keikai.tutorial.persistence;
 
 import io.keikai.tutorial.Configuration;
-import org.hsqldb.cmdline.*;
+import io.keikai.tutorial.metrics.Metrics;
 import org.slf4j.*;
 
 import java.io.*;
-import java.net.URISyntaxException;
 import java.sql.*;
+import java.sql.Date;
+import java.time.LocalDate;
 import java.util.*;
 
 /**
- * Create adn close a connection for every query.
+ * Borrow a connection from {@link ConnectionPool} for every query and return it by closing it.
+ * No application-level lock is needed, the database runs in MVCC mode so reads and writes proceed concurrently.
  */
 public class WorkflowDao {
     private static final Logger logger = LoggerFactory.getLogger(WorkflowDao.class);
     static final String TABLE_NAME = "workflow";
+    static final String FIELD_TABLE_NAME = "submission_field";
+    static private final Metrics.Timer insertAllTimer = daoTimer("insertAll");
+    static private final Metrics.Timer isStoredTimer = daoTimer("isStored");
+    static private final Metrics.Timer sumFieldByOwnerTimer = daoTimer("sumFieldByOwner");
+    static private final Metrics.Timer queryAllTimer = daoTimer("queryAll");
+    static private final Metrics.Timer queryPageTimer = daoTimer("queryPage");
+    static private final Metrics.Timer queryOwnersTimer = daoTimer("queryOwners");
+    static private final Metrics.Timer openFormTimer = daoTimer("openForm");
+    static private final Metrics.Timer updateTimer = daoTimer("update");
+    static private final Metrics.Timer exportAllTimer = daoTimer("exportAll");
+    /**
+     * new forms go to the first store, a form not found in it is read from the next one
+     */
+    static private final List<FormStore> FORM_STORES = createFormStores();
 
-    static public void initDatabase() {
+    static Connection createConnection() throws SQLException {
+        return ConnectionPool.getInstance().getConnection();
+    }
+
+    static private List<FormStore> createFormStores() {
+        FormStore fileStore = new FileFormStore(new File(Configuration.FORM_STORE_FOLDER));
+        FormStore databaseStore = new FormArchive();
+        // Configuration only accepts file or database
+        if ("database".equals(Configuration.FORM_STORE)) {
+            return Arrays.asList(databaseStore, fileStore);
+        }
+        return Arrays.asList(fileStore, databaseStore);
+    }
+
+    static private Metrics.Timer daoTimer(String method) {
+        return Metrics.timer(Metrics.DAO_METRIC, "time of DAO methods", "method", "WorkflowDao." + method);
+    }
+
+    /**
+     * store the form with the configured {@link FormStore}, the submission, and its field values in one transaction
+     */
+    static public void insert(Submission submission) {
         try {
-            Class.forName(Configuration.JDBC_DRIVER);
-            try (Connection con = createConnection();) {
-                initializeTable(con);
-                logger.info("-> initialized table " + TABLE_NAME);
-            }
-        } catch (Exception e) {
+            insertAll(Collections.singletonList(submission));
+        } catch (SQLException | IOException e) {
             e.printStackTrace();
         }
     }
 
-    static Connection createConnection() {
-        try {
-            return DriverManager.getConnection(Configuration.HSQLDB_CONNECTION_STRING, "SA", "");
+    /**
+     * insert submissions in one transaction, either all of them are stored or none.
+     * Publish {@link SubmissionEvents.Type#INSERTED} for each submission after committed.
+     */
+    static public void insertAll(List<Submission> submissions) throws SQLException, IOException {
+        String sql = "INSERT INTO " + TABLE_NAME + " (formHash, formName, state, lastUpdate, owner, spoolKey) VALUES( ?, ?, ?, ?, ?, ?)";
+        long start = Metrics.start();
+        try (Connection con = createConnection();
+             PreparedStatement statement = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+        ) {
+            con.setAutoCommit(false);
+            for (Submission submission : submissions) {
+                statement.setString(1, FORM_STORES.get(0).store(con, submission.getForm()));
+                statement.setString(2, submission.getFormName());
+                statement.setString(3, submission.getState().name());
+                statement.setTimestamp(4, Timestamp.valueOf(submission.getLastUpdate()));
+                statement.setString(5, submission.getOwner());
+                statement.setString(6, submission.getSpoolKey());
+                statement.executeUpdate();
+                try (ResultSet keys = statement.getGeneratedKeys()) {
+                    if (keys.next()) {
+                        submission.setId(keys.getInt(1));
+                    }
+                }
+                insertFields(con, submission);
+            }
+            con.commit();
+        } catch (SQLException | IOException | RuntimeException e) {
+            insertAllTimer.error();
+            throw e;
+        } finally {
+            insertAllTimer.stop(start);
+        }
+        for (Submission submission : submissions) {
+            SubmissionEvents.publish(SubmissionEvents.Type.INSERTED, submission);
+        }
+    }
+
+    /**
+     * @return true if a submission written from the spool file is committed
+     */
+    static public boolean isStored(String spoolKey) throws SQLException {
+        String sql = "SELECT 1 FROM " + TABLE_NAME + " WHERE spoolKey = ?";
+        long start = Metrics.start();
+        try (Connection con = createConnection();
+             PreparedStatement statement = con.prepareStatement(sql);
+        ) {
+            statement.setString(1, spoolKey);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
         } catch (SQLException e) {
-            e.printStackTrace();
+            isStoredTimer.error();
+            throw e;
+        } finally {
+            isStoredTimer.stop(start);
         }
-        return null;
     }
 
-    static private void initializeTable(Connection con) throws IOException, URISyntaxException, SqlToolError, SQLException {
-        File inputFile = new File(WorkflowDao.class.getResource("/workflow.sql").toURI());
-        SqlFile file = new SqlFile(inputFile);
-        file.setConnection(con);
-        file.execute();
+    static private void insertFields(Connection con, Submission submission) throws SQLException {
+        if (submission.getFields().isEmpty()) {
+            return;
+        }
+        String sql = "INSERT INTO " + FIELD_TABLE_NAME + " (submissionId, name, textValue, numberValue, dateValue) VALUES( ?, ?, ?, ?, ?)";
+        try (PreparedStatement statement = con.prepareStatement(sql)) {
+            for (Map.Entry<String, Object> field : submission.getFields().entrySet()) {
+                Object value = field.getValue();
+                statement.setInt(1, submission.getId());
+                statement.setString(2, field.getKey());
+                statement.setString(3, value instanceof String ? (String) value : null);
+                if (value instanceof Number) {
+                    statement.setDouble(4, ((Number) value).doubleValue());
+                } else {
+                    statement.setNull(4, Types.DOUBLE);
+                }
+                statement.setDate(5, value instanceof LocalDate ? Date.valueOf((LocalDate) value) : null);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
     }
 
-    synchronized static public void insert(Submission submission) {
-        String sql = "INSERT INTO " + TABLE_NAME + " (form, formName, state, lastUpdate, owner) VALUES( ?, ?, ?, ?, ?)";
+    /**
+     * sum a numeric field of a form per owner, e.g. leave days per employee
+     * @param state only count submissions in this state, null means any state
+     */
+    static public Map<String, Double> sumFieldByOwner(String formName, String fieldName, Submission.State state) {
+        String sql = "SELECT w.owner, SUM(f.numberValue) AS total FROM " + TABLE_NAME + " w JOIN " + FIELD_TABLE_NAME
+                + " f ON f.submissionId = w.id WHERE f.name=? AND w.formName=?"
+                + (state == null ? "" : " AND w.state=?") + " GROUP BY w.owner ORDER BY w.owner";
+        Map<String, Double> totals = new LinkedHashMap<>();
+        long start = Metrics.start();
         try (Connection con = createConnection();
              PreparedStatement statement = con.prepareStatement(sql);
         ) {
-            Blob form = con.createBlob();
-            form.setBytes(1, submission.getForm().toByteArray());
-            statement.setBlob(1, form);
-            statement.setString(2, submission.getFormName());
-            statement.setString(3, submission.getState().name());
-            statement.setTimestamp(4, Timestamp.valueOf(submission.getLastUpdate()));
-            statement.setString(5, submission.getOwner());
-            statement.executeUpdate();
+            statement.setString(1, fieldName);
+            statement.setString(2, formName);
+            if (state != null) {
+                statement.setString(3, state.name());
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    totals.put(resultSet.getString("owner"), resultSet.getDouble("total"));
+                }
+            }
         } catch (SQLException e) {
+            sumFieldByOwnerTimer.error();
             e.printStackTrace();
+        } finally {
+            sumFieldByOwnerTimer.stop(start);
         }
+        return totals;
     }
 
-    synchronized static public List<Submission> queryAll() {
-        String sql = "SELECT * FROM " + TABLE_NAME;
-        LinkedList<Submission> list = new LinkedList<>();
+    /**
+     * query submission metadata without the form content, call {@link #openForm(int)} to read a form.
+     */
+    static public List<Submission> queryAll() {
+        String sql = "SELECT id, formName, owner, state, lastUpdate FROM " + TABLE_NAME;
+        List<Submission> list = new ArrayList<>();
+        long start = Metrics.start();
         try (Connection con = createConnection();
              PreparedStatement statement = con.prepareStatement(sql);
              ResultSet resultSet = statement.executeQuery();
         ) {
             while (resultSet.next()) {
-                Submission submission = new Submission();
-                submission.setId(resultSet.getInt("id"));
-                submission.setFormName(resultSet.getString("formName"));
-                submission.setOwner(resultSet.getString("owner"));
-                submission.setState(Submission.State.valueOf(resultSet.getString("state")));
-                submission.setLastUpdate(resultSet.getTimestamp("lastUpdate").toLocalDateTime());
-                Blob formBlob = resultSet.getBlob("form");
-                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                outputStream.write(formBlob.getBytes(1, (int) formBlob.length()));
-                submission.setForm(outputStream);
-                list.add(submission);
+                list.add(toSubmission(resultSet));
             }
         } catch (Exception e) {
+            queryAllTimer.error();
+            e.printStackTrace();
+        } finally {
+            queryAllTimer.stop(start);
+        }
+        return list;
+    }
+
+    /**
+     * query a page of submission metadata ordered by lastUpdate (newest first) with keyset pagination,
+     * so the cost of a page doesn't depend on how many pages are before it.
+     * @param state only return submissions in this state, null means any state
+     * @param owner only return submissions of this owner, null means any owner
+     * @param after the last submission of the previous page, null to query the first page
+     * @param limit maximal number of submissions to return
+     */
+    static public List<Submission> queryPage(Submission.State state, String owner, Submission after, int limit) {
+        StringBuilder sql = new StringBuilder("SELECT id, formName, owner, state, lastUpdate FROM " + TABLE_NAME + " WHERE 1=1");
+        if (state != null) {
+            sql.append(" AND state=?");
+        }
+        if (owner != null) {
+            sql.append(" AND owner=?");
+        }
+        if (after != null) {
+            sql.append(" AND (lastUpdate<? OR (lastUpdate=? AND id<?))");
+        }
+        sql.append(" ORDER BY lastUpdate DESC, id DESC LIMIT ?");
+        List<Submission> list = new ArrayList<>(limit);
+        long start = Metrics.start();
+        try (Connection con = createConnection();
+             PreparedStatement statement = con.prepareStatement(sql.toString());
+        ) {
+            int index = 1;
+            if (state != null) {
+                statement.setString(index++, state.name());
+            }
+            if (owner != null) {
+                statement.setString(index++, owner);
+            }
+            if (after != null) {
+                Timestamp lastUpdate = Timestamp.valueOf(after.getLastUpdate());
+                statement.setTimestamp(index++, lastUpdate);
+                statement.setTimestamp(index++, lastUpdate);
+                statement.setInt(index++, after.getId());
+            }
+            statement.setInt(index, limit);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    list.add(toSubmission(resultSet));
+                }
+            }
+        } catch (SQLException e) {
+            queryPageTimer.error();
             e.printStackTrace();
+        } finally {
+            queryPageTimer.stop(start);
         }
         return list;
     }
 
-    public static void update(Submission submission) {
-        String sql = "UPDATE " + TABLE_NAME + " SET state=?, lastUpdate=? WHERE id=?";
+    /**
+     * @return all distinct owners of submissions, for filtering
+     */
+    static public List<String> queryOwners() {
+        String sql = "SELECT DISTINCT owner FROM " + TABLE_NAME + " ORDER BY owner";
+        List<String> list = new ArrayList<>();
+        long start = Metrics.start();
+        try (Connection con = createConnection();
+             PreparedStatement statement = con.prepareStatement(sql);
+             ResultSet resultSet = statement.executeQuery();
+        ) {
+            while (resultSet.next()) {
+                list.add(resultSet.getString("owner"));
+            }
+        } catch (SQLException e) {
+            queryOwnersTimer.error();
+            e.printStackTrace();
+        } finally {
+            queryOwnersTimer.stop(start);
+        }
+        return list;
+    }
+
+    /**
+     * stream the metadata of all submissions in id order to a handler without loading them into memory
+     */
+    static public void exportAll(RowHandler handler) throws SQLException, IOException {
+        String sql = "SELECT id, formName, owner, state, lastUpdate FROM " + TABLE_NAME + " ORDER BY id";
+        long start = Metrics.start();
+        try {
+            TableCursor.stream(sql, new String[]{"ID", "Form", "Owner", "State", "Last Update"}, handler);
+        } catch (SQLException e) {
+            // an IOException is a failure of the handler writing rows, not of the DAO
+            exportAllTimer.error();
+            throw e;
+        } finally {
+            exportAllTimer.stop(start);
+        }
+    }
+
+    static private Submission toSubmission(ResultSet resultSet) throws SQLException {
+        Submission submission = new Submission();
+        submission.setId(resultSet.getInt("id"));
+        submission.setFormName(resultSet.getString("formName"));
+        submission.setOwner(resultSet.getString("owner"));
+        submission.setState(Submission.State.valueOf(resultSet.getString("state")));
+        submission.setLastUpdate(resultSet.getTimestamp("lastUpdate").toLocalDateTime());
+        return submission;
+    }
+
+    /**
+     * open the form content of one submission. A form read with a database connection is copied into a
+     * {@link SpillBuffer} first, so the connection returns to the pool before the form is sent to a Keikai server.
+     * @return null if the submission doesn't exist
+     */
+    static public InputStream openForm(int id) {
+        String sql = "SELECT formHash FROM " + TABLE_NAME + " WHERE id=?";
+        long start = Metrics.start();
+        try (Connection con = createConnection();
+             PreparedStatement statement = con.prepareStatement(sql);
+        ) {
+            statement.setInt(1, id);
+            String formHash;
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+                formHash = resultSet.getString("formHash");
+            }
+            for (FormStore store : FORM_STORES) {
+                InputStream form = store.open(con, formHash);
+                if (form != null) {
+                    return store.readsWithConnection() ? detach(form) : form;
+                }
+            }
+        } catch (Exception e) {
+            openFormTimer.error();
+            e.printStackTrace();
+        } finally {
+            openFormTimer.stop(start);
+        }
+        return null;
+    }
+
+    /**
+     * read a form fully into a buffer, the buffer is deleted when the returned stream is closed
+     */
+    static private InputStream detach(InputStream form) throws IOException {
+        SpillBuffer buffer = new SpillBuffer();
+        try (InputStream inputStream = form) {
+            byte[] bytes = new byte[8192];
+            int n;
+            while ((n = inputStream.read(bytes)) != -1) {
+                buffer.write(bytes, 0, n);
+            }
+            return new FilterInputStream(buffer.openStream()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        buffer.close();
+                    }
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            buffer.close();
+            throw e;
+        }
+    }
+
+    /**
+     * update the state of a submission only if it's still in the expected state, so that when 2 supervisors review
+     * the same submission concurrently, only the first one succeeds.
+     * @return true if updated, false if the submission doesn't exist or its state isn't expectedState anymore.
+     */
+    public static boolean update(Submission submission, Submission.State expectedState) {
+        String sql = "UPDATE " + TABLE_NAME + " SET state=?, lastUpdate=? WHERE id=? AND state=?";
+        long start = Metrics.start();
         try (Connection con = createConnection();
              PreparedStatement statement = con.prepareStatement(sql);
         ) {
             statement.setString(1, submission.getState().name());
             statement.setTimestamp(2, Timestamp.valueOf(submission.getLastUpdate()));
             statement.setInt(3, submission.getId());
-            statement.executeUpdate();
+            statement.setString(4, expectedState.name());
+            if (statement.executeUpdate() > 0) {
+                SubmissionEvents.publish(SubmissionEvents.Type.UPDATED, submission);
+                return true;
+            }
         } catch (SQLException e) {
+            updateTimer.error();
             e.printStackTrace();
+        } finally {
+            updateTimer.stop(start);
         }
+        return false;
     }
 }
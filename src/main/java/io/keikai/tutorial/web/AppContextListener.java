@@ -1,6 +1,8 @@
 package io.keikai.tutorial.web;
 
 import io.keikai.tutorial.Configuration;
+import io.keikai.tutorial.app.*;
+import io.keikai.tutorial.metrics.Metrics;
 import io.keikai.tutorial.persistence.*;
 
 import javax.servlet.*;
@@ -15,11 +17,30 @@ public class AppContextListener implements ServletContextListener {
 
     @Override
     public void contextInitialized(ServletContextEvent servletContextEvent) {
-        SampleDataDao.initDatabase();
-        WorkflowDao.initDatabase();
+        try {
+            ConnectionPool.start();
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+        SchemaMigration.migrate();
+        ClientRegistry.start();
+        KeikaiHealthChecker.start();
+        SubmissionWriter.start();
+        registerGauges();
         loadFormList(servletContextEvent.getServletContext());
     }
 
+    static private void registerGauges() {
+        Metrics.gauge("tutorial_db_pool_active_connections", "connections borrowed from the pool",
+                () -> ConnectionPool.getInstance().getStats().getActive());
+        Metrics.gauge("tutorial_db_pool_idle_connections", "connections idle in the pool",
+                () -> ConnectionPool.getInstance().getStats().getIdle());
+        Metrics.gauge("tutorial_db_pool_waiting_threads", "threads waiting for a connection",
+                () -> ConnectionPool.getInstance().getStats().getWaitingThreads());
+        Metrics.gauge("tutorial_spreadsheet_clients", "live spreadsheet clients",
+                ClientRegistry::getLiveClientCount);
+    }
+
     static private void loadFormList(ServletContext context) {
         formList.add(new File(context.getRealPath(Configuration.getDefaultFileFolder() + "Leave Application.xlsx")));
         formList.add(new File(context.getRealPath(Configuration.getDefaultFileFolder() + "Business Trip Request.xlsx")));
@@ -27,6 +48,11 @@ public class AppContextListener implements ServletContextListener {
 
     @Override
     public void contextDestroyed(ServletContextEvent sce) {
+        KeikaiHealthChecker.shutdown();
+        ClientRegistry.shutdown();
+        SubmissionWriter.shutdown();
+        ConnectionPool.shutdown();
+        TemplateCache.clear();
     }
 
     static public List<File> getFormList() {
@@ -1,6 +1,6 @@
 package io.keikai.tutorial.web;
 
-import io.keikai.client.api.AbortedException;
+import io.keikai.client.api.Spreadsheet;
 import io.keikai.tutorial.*;
 import io.keikai.tutorial.app.MyApp;
 
@@ -18,17 +18,21 @@ public class AppServlet extends BaseServlet {
 
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse resp) throws ServletException, IOException {
-        super.doGet(request, resp);
-        MyApp myApp = new MyApp(keikaiServerAddress);
+        if (!selectServer(request, resp)) {
+            return;
+        }
+        Spreadsheet spreadsheet = takeClient(request);
+        MyApp myApp = new MyApp(spreadsheet);
         // pass the anchor DOM element id for rendering keikai
         String keikaiJs = myApp.getJavaScriptURI("spreadsheet");
         // store as an attribute to be accessed by EL on a JSP
         request.setAttribute(Configuration.KEIKAI_JS, keikaiJs);
-        try {
+        if (!initClient(request, resp, spreadsheet, () -> {
             myApp.init(defaultXlsx, defaultFile);
-        } catch (AbortedException e) {
-            e.printStackTrace();
+            return null;
+        })) {
+            return;
         }
-        request.getRequestDispatcher("/myapp/app.jsp").forward(request, resp);
+        forward(request, resp, "/myapp/app.jsp");
     }
 }
@@ -2,42 +2,192 @@ package io.keikai.tutorial.web;
 
 import io.keikai.client.api.*;
 import io.keikai.tutorial.Configuration;
+import io.keikai.tutorial.app.*;
+import io.keikai.tutorial.metrics.Metrics;
 
 import javax.servlet.*;
 import javax.servlet.http.*;
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
- * accept "server" parameter e.g. http://localhost:8080?server=10.1.1.1:8888
+ * accept "server" parameter e.g. http://localhost:8080?server=10.1.1.1:8888 <br/>
+ * Without the parameter, a Keikai server is selected by {@link KeikaiServerBalancer} for each request.
+ * Keep a pool of clients with the default book loaded for each configured Keikai server.
+ * Keikai client calls fail after {@link Configuration#KEIKAI_CALL_TIMEOUT_MS}, see {@link KeikaiCalls}.
+ * Time each request and its phases with {@link Metrics}.
  */
 public class BaseServlet extends HttpServlet {
-    protected String keikaiServerAddress = Configuration.DEFAULT_KEIKAI_SERVER;
+    static private final String REQUEST_METRIC = "tutorial_servlet_request";
+    static private final String PHASE_METRIC = "tutorial_servlet_phase";
     protected File defaultFileFolder;
     protected File defaultFile;
     protected String defaultXlsx = "welcome.xlsx";
+    protected Map<String, ClientPool> clientPools = new HashMap<>();
+    private Metrics.Timer requestTimer;
+    private Metrics.Timer selectServerTimer;
+    private Metrics.Timer takeClientTimer;
+    private Metrics.Timer forwardTimer;
+    /**
+     * time loading a book and setting up the application, e.g. importAndReplace, adding listeners, and DB queries
+     */
+    private Metrics.Timer initTimer;
 
     @Override
     public void init(ServletConfig config) throws ServletException {
         super.init(config);
         defaultFileFolder = new File(getServletContext().getRealPath(Configuration.getDefaultFileFolder()));
         defaultFile = new File(defaultFileFolder, defaultXlsx);
+        String servlet = getClass().getSimpleName();
+        requestTimer = Metrics.timer(REQUEST_METRIC, "time of servlet requests", "servlet", servlet);
+        selectServerTimer = Metrics.timer(PHASE_METRIC, "time of servlet request phases", "servlet", servlet, "phase", "selectServer");
+        takeClientTimer = Metrics.timer(PHASE_METRIC, "time of servlet request phases", "servlet", servlet, "phase", "takeClient");
+        initTimer = Metrics.timer(PHASE_METRIC, "time of servlet request phases", "servlet", servlet, "phase", "init");
+        forwardTimer = Metrics.timer(PHASE_METRIC, "time of servlet request phases", "servlet", servlet, "phase", "forward");
 //        Configuration.enableSocketIOLog();
+        if (Configuration.CLIENT_POOL_SIZE > 0) {
+            for (String server : KeikaiServerBalancer.getServers()) {
+                clientPools.put(server, new ClientPool(getClass().getSimpleName() + "@" + server, Configuration.CLIENT_POOL_SIZE,
+                        Configuration.CLIENT_POOL_MAX_IDLE_MS, () -> createClient(server)));
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        for (ClientPool clientPool : clientPools.values()) {
+            clientPool.close();
+        }
+        super.destroy();
+    }
+
+    /**
+     * create a client, override it to create a client with different settings
+     */
+    protected Spreadsheet newClient(String serverAddress) {
+        return ClientRegistry.newClient(serverAddress);
+    }
+
+    /**
+     * create a client and load the default book
+     */
+    protected Spreadsheet createClient(String serverAddress) throws IOException, AbortedException {
+        Spreadsheet spreadsheet = newClient(serverAddress);
+        spreadsheet.importAndReplace(defaultXlsx, TemplateCache.open(defaultFile));
+        return spreadsheet;
+    }
+
+    /**
+     * take a pooled client of the Keikai server selected for the request if possible, or create a new one.
+     * A pooled client has loaded the default book.
+     */
+    protected Spreadsheet takeClient(HttpServletRequest request) throws ServletException {
+        long start = Metrics.start();
+        String serverAddress = getServerAddress(request);
+        ClientPool clientPool = clientPools.get(serverAddress);
+        try {
+            // a client created after the timeout is closed by ClientRegistry since its browser never connects
+            return KeikaiCalls.call(serverAddress, Configuration.KEIKAI_CALL_TIMEOUT_MS,
+                    () -> clientPool == null ? newClient(serverAddress) : clientPool.take());
+        } catch (Exception e) {
+            takeClientTimer.error();
+            throw new ServletException("fail to create a spreadsheet client", e);
+        } finally {
+            takeClientTimer.stop(start);
+        }
+    }
+
+    /**
+     * load a book and set up the application with the client, e.g. MyApp.init(). If the Keikai server doesn't respond
+     * in time, close the client and respond an error page at once.
+     * @return false if the Keikai server doesn't respond and the response is sent
+     */
+    protected boolean initClient(HttpServletRequest request, HttpServletResponse resp, Spreadsheet spreadsheet,
+                                 Callable<?> init) throws IOException {
+        long start = Metrics.start();
+        try {
+            KeikaiCalls.call(getServerAddress(request), Configuration.KEIKAI_CALL_TIMEOUT_MS, init);
+            return true;
+        } catch (TimeoutException e) {
+            initTimer.error();
+            ClientRegistry.close(spreadsheet);
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "The Keikai server doesn't respond in time");
+            return false;
+        } catch (Exception e) {
+            initTimer.error();
+            e.printStackTrace();
+            return true;
+        } finally {
+            initTimer.stop(start);
+        }
     }
 
+    /**
+     * forward to a JSP to render the page
+     */
+    protected void forward(HttpServletRequest request, HttpServletResponse resp, String path) throws ServletException, IOException {
+        long start = Metrics.start();
+        try {
+            request.getRequestDispatcher(path).forward(request, resp);
+        } finally {
+            forwardTimer.stop(start);
+        }
+    }
+
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        long start = Metrics.start();
+        try {
+            super.service(req, resp);
+        } catch (ServletException | IOException | RuntimeException e) {
+            requestTimer.error();
+            throw e;
+        } finally {
+            requestTimer.stop(start);
+        }
+    }
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        determineServerAddress(req);
+        selectServer(req, resp);
+    }
+
+    /**
+     * determine a Keikai server for the request, or respond an error page at once if no server is available.
+     * @return false if no server is available and the response is sent
+     */
+    protected boolean selectServer(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        long start = Metrics.start();
+        String serverAddress = determineServerAddress(req);
+        selectServerTimer.stop(start);
+        if (serverAddress == null) {
+            selectServerTimer.error();
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "No Keikai server is available");
+            return false;
+        }
+        req.setAttribute(Configuration.KEIKAI_SERVER, serverAddress);
+        return true;
     }
 
     /**
-     * determine Keikai server address according to the query string
+     * determine Keikai server address according to the query string, servlets are shared by all requests,
+     * so the address is kept in the request instead of a servlet field.
      * @param request
+     * @return null if no healthy server is available
      */
-    protected void determineServerAddress(ServletRequest request) {
+    protected String determineServerAddress(ServletRequest request) {
         String serverAddress = request.getParameter("server");
         if (serverAddress != null){
-            keikaiServerAddress = "http://" + serverAddress;
+            return "http://" + serverAddress;
         }
+        return KeikaiServerBalancer.select();
+    }
+
+    /**
+     * @return the Keikai server address determined for the request
+     */
+    protected String getServerAddress(ServletRequest request) {
+        return (String) request.getAttribute(Configuration.KEIKAI_SERVER);
     }
 }
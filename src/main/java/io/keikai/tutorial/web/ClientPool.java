@@ -0,0 +1,123 @@
+package io.keikai.tutorial.web;
+
+import io.keikai.client.api.Spreadsheet;
+import io.keikai.tutorial.app.ClientRegistry;
+import org.slf4j.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keep a few spreadsheet clients that already connect to a Keikai server and load a default book, so a request
+ * doesn't wait for creating a client and importing a book. A taken client is replaced in the background. <br/>
+ * When the pool is empty, a client is created in the caller thread.
+ */
+public class ClientPool {
+    private static final Logger logger = LoggerFactory.getLogger(ClientPool.class);
+
+    /**
+     * create a client and load a book into it
+     */
+    public interface ClientFactory {
+        Spreadsheet create() throws Exception;
+    }
+
+    private final String name;
+    private final int size;
+    private final long maxIdleMs;
+    private final ClientFactory factory;
+    private final BlockingQueue<PooledClient> idleClients;
+    private final AtomicInteger creating = new AtomicInteger();
+    private final ExecutorService refiller;
+    private volatile boolean closed = false;
+
+    public ClientPool(String name, int size, long maxIdleMs, ClientFactory factory) {
+        this.name = name;
+        this.size = size;
+        this.maxIdleMs = maxIdleMs;
+        this.factory = factory;
+        this.idleClients = new LinkedBlockingQueue<>(size);
+        this.refiller = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "client-pool-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        refill();
+    }
+
+    /**
+     * @return a client ready to use, its browser should connect later
+     */
+    public Spreadsheet take() throws Exception {
+        PooledClient pooled;
+        Spreadsheet spreadsheet = null;
+        while (spreadsheet == null && (pooled = idleClients.poll()) != null) {
+            if (System.currentTimeMillis() - pooled.createdAt > maxIdleMs) {
+                ClientRegistry.close(pooled.spreadsheet);
+            } else {
+                spreadsheet = pooled.spreadsheet;
+            }
+        }
+        refill();
+        if (spreadsheet == null) {
+            return factory.create();
+        }
+        ClientRegistry.checkout(spreadsheet);
+        return spreadsheet;
+    }
+
+    /**
+     * create clients in the background until the pool is full
+     */
+    private void refill() {
+        while (!closed && idleClients.size() + creating.get() < size) {
+            creating.incrementAndGet();
+            try {
+                refiller.execute(this::createIdleClient);
+            } catch (RejectedExecutionException e) {
+                creating.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    private void createIdleClient() {
+        try {
+            if (closed) {
+                return;
+            }
+            Spreadsheet spreadsheet = factory.create();
+            ClientRegistry.park(spreadsheet);
+            if (closed || !idleClients.offer(new PooledClient(spreadsheet))) {
+                ClientRegistry.close(spreadsheet);
+            }
+        } catch (Exception e) {
+            // not retried until next take(), a Keikai server might be unavailable
+            logger.warn("fail to create a pooled client for " + name, e);
+        } finally {
+            creating.decrementAndGet();
+        }
+    }
+
+    public int getIdleCount() {
+        return idleClients.size();
+    }
+
+    public void close() {
+        closed = true;
+        refiller.shutdownNow();
+        PooledClient pooled;
+        while ((pooled = idleClients.poll()) != null) {
+            ClientRegistry.close(pooled.spreadsheet);
+        }
+    }
+
+    static private class PooledClient {
+        private final Spreadsheet spreadsheet;
+        private final long createdAt = System.currentTimeMillis();
+
+        PooledClient(Spreadsheet spreadsheet) {
+            this.spreadsheet = spreadsheet;
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package io.keikai.tutorial.web;
 
-import io.keikai.client.api.AbortedException;
+import io.keikai.client.api.*;
 import io.keikai.tutorial.*;
 import io.keikai.tutorial.app.MyEditor;
 
@@ -16,19 +16,28 @@ public class EditorServlet extends BaseServlet {
         this.defaultXlsx = "welcome.xlsx";
     }
 
+    @Override
+    protected Spreadsheet newClient(String serverAddress) {
+        return MyEditor.newClient(serverAddress);
+    }
+
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse resp) throws ServletException, IOException {
-        super.doGet(request, resp);
-        MyEditor myEditor = new MyEditor(keikaiServerAddress);
+        if (!selectServer(request, resp)) {
+            return;
+        }
+        Spreadsheet spreadsheet = takeClient(request);
+        MyEditor myEditor = new MyEditor(spreadsheet);
         // pass the anchor DOM element id for rendering keikai
         String keikaiJs = myEditor.getJavaScriptURI("spreadsheet");
         // store as an attribute to be accessed by EL on a JSP
         request.setAttribute(Configuration.KEIKAI_JS, keikaiJs);
-        try {
+        if (!initClient(request, resp, spreadsheet, () -> {
             myEditor.init(defaultXlsx, defaultFile);
-        } catch (AbortedException e) {
-            e.printStackTrace();
+            return null;
+        })) {
+            return;
         }
-        request.getRequestDispatcher("/myeditor/editor.jsp").forward(request, resp);
+        forward(request, resp, "/myeditor/editor.jsp");
     }
 }
@@ -0,0 +1,80 @@
+package io.keikai.tutorial.web;
+
+import io.keikai.tutorial.Configuration;
+import io.keikai.tutorial.export.*;
+import io.keikai.tutorial.persistence.*;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.*;
+import java.io.*;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+
+/**
+ * download a whole table as a file, e.g. /export/workflow.xlsx or /export/expense.csv <br/>
+ * Rows are streamed from the database into a temporary file without a Keikai server, so the memory usage doesn't grow
+ * with the table size. The file is sent after the database connection is returned, so a slow download doesn't keep
+ * a pooled connection. At most {@link Configuration#EXPORT_MAX_CONCURRENT} exports read the database at the same time,
+ * others are rejected with 503, so exports can't take all connections from other DAO methods.
+ */
+@WebServlet("/export/*")
+public class ExportServlet extends HttpServlet {
+    static private final String XLSX_CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+    static private final String CSV_CONTENT_TYPE = "text/csv; charset=utf-8";
+    static private final Map<String, TableExporter> TABLES = new HashMap<>();
+    static private final Semaphore exportPermits = new Semaphore(Configuration.EXPORT_MAX_CONCURRENT);
+
+    static {
+        TABLES.put("workflow", WorkflowDao::exportAll);
+        TABLES.put("expense", SampleDataDao::exportAll);
+    }
+
+    /**
+     * stream a table to a row handler
+     */
+    private interface TableExporter {
+        void export(RowHandler handler) throws SQLException, IOException;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse resp) throws ServletException, IOException {
+        String fileName = request.getPathInfo() == null ? "" : request.getPathInfo().substring(1);
+        int extensionIndex = fileName.lastIndexOf('.');
+        TableExporter exporter = extensionIndex < 0 ? null : TABLES.get(fileName.substring(0, extensionIndex));
+        String extension = fileName.substring(extensionIndex + 1);
+        if (exporter == null || !(extension.equals("xlsx") || extension.equals("csv"))) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Available files: " + TABLES.keySet() + " in .xlsx or .csv");
+            return;
+        }
+        File spoolFile = File.createTempFile("export", "." + extension);
+        try {
+            if (!exportPermits.tryAcquire()) {
+                resp.setHeader("Retry-After", "10");
+                resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many exports in progress, please retry later");
+                return;
+            }
+            try (OutputStream fileStream = new BufferedOutputStream(new FileOutputStream(spoolFile))) {
+                RowWriter writer = extension.equals("xlsx") ? new XlsxRowWriter(fileStream) : new CsvRowWriter(fileStream);
+                exporter.export(writer);
+                writer.finish();
+            } catch (SQLException e) {
+                throw new ServletException("fail to export " + fileName, e);
+            } finally {
+                exportPermits.release();
+            }
+            resp.setContentType(extension.equals("xlsx") ? XLSX_CONTENT_TYPE : CSV_CONTENT_TYPE);
+            resp.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+            resp.setHeader("Content-Length", String.valueOf(spoolFile.length()));
+            OutputStream outputStream = resp.getOutputStream();
+            Files.copy(spoolFile.toPath(), outputStream);
+            outputStream.flush();
+        } finally {
+            if (!spoolFile.delete()) {
+                spoolFile.deleteOnExit();
+            }
+        }
+    }
+}
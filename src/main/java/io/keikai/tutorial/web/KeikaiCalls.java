@@ -0,0 +1,39 @@
+package io.keikai.tutorial.web;
+
+import java.util.concurrent.*;
+
+/**
+ * Run Keikai client calls of a request with a timeout, e.g. creating a client and importing a book, since the Java
+ * client doesn't time out a call by itself. A server not responding in time is reported to
+ * {@link KeikaiHealthChecker}, so it stops receiving requests without waiting for the next probes.
+ */
+public class KeikaiCalls {
+    private static final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "keikai-call");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private KeikaiCalls() {
+    }
+
+    /**
+     * @throws TimeoutException if the call doesn't return within the timeout, the call is interrupted
+     * @throws Exception thrown by the call
+     */
+    static public <T> T call(String server, long timeoutMs, Callable<T> call) throws Exception {
+        Future<T> future = executor.submit(call);
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            KeikaiHealthChecker.reportFailure(server, e);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package io.keikai.tutorial.web;
+
+import io.keikai.tutorial.Configuration;
+import org.slf4j.*;
+
+import java.io.IOException;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Probe each Keikai server with an HTTP request periodically, track its latency, and mark a server unhealthy after
+ * {@link Configuration#KEIKAI_UNHEALTHY_THRESHOLD} consecutive failures, so that {@link KeikaiServerBalancer} only
+ * routes requests to healthy servers. A server is healthy again after a successful probe. <br/>
+ * A server is unknown until its first probe, it's probed in the caller thread before its first use and is healthy only
+ * if the probe succeeds. A call timing out in a request also counts as a failure, see {@link KeikaiCalls}.
+ */
+public class KeikaiHealthChecker {
+    private static final Logger logger = LoggerFactory.getLogger(KeikaiHealthChecker.class);
+    private static final ConcurrentHashMap<String, Status> statuses = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService scheduler;
+
+    private KeikaiHealthChecker() {
+    }
+
+    static public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "keikai-health-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(KeikaiHealthChecker::probeAll, 0,
+                Configuration.KEIKAI_HEALTH_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    static public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * probe a server not probed yet first
+     */
+    static public boolean isHealthy(String server) {
+        Status status = statuses.computeIfAbsent(server, s -> new Status());
+        if (!status.probed) {
+            synchronized (status) {
+                if (!status.probed) {
+                    probe(server);
+                }
+            }
+        }
+        return status.healthy;
+    }
+
+    /**
+     * count a failed request to a server like a failed probe
+     */
+    static public void reportFailure(String server, Exception cause) {
+        fail(server, statuses.computeIfAbsent(server, s -> new Status()), cause);
+    }
+
+    /**
+     * @return the average latency of successful probes in milliseconds, -1 if no successful probe yet
+     */
+    static public long getLatency(String server) {
+        Status status = statuses.get(server);
+        return status == null ? -1 : status.latencyMs;
+    }
+
+    static private void probeAll() {
+        for (String server : KeikaiServerBalancer.getServers()) {
+            probe(server);
+        }
+    }
+
+    static void probe(String server) {
+        Status status = statuses.computeIfAbsent(server, s -> new Status());
+        long start = System.nanoTime();
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(server).openConnection();
+            connection.setConnectTimeout((int) Configuration.KEIKAI_CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout((int) Configuration.KEIKAI_CONNECT_TIMEOUT_MS);
+            connection.setRequestMethod("GET");
+            try {
+                int responseCode = connection.getResponseCode();
+                if (responseCode >= 500) {
+                    throw new IOException("response code " + responseCode);
+                }
+            } finally {
+                connection.disconnect();
+            }
+            long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            // exponentially weighted moving average
+            status.latencyMs = status.latencyMs < 0 ? latencyMs : (status.latencyMs * 7 + latencyMs * 3) / 10;
+            status.failures = 0;
+            if (status.probed && !status.healthy) {
+                logger.info("-> Keikai server " + server + " is healthy again");
+            }
+            status.healthy = true;
+        } catch (IOException | RuntimeException e) {
+            fail(server, status, e);
+        }
+        status.probed = true;
+    }
+
+    /**
+     * mark a server unhealthy after consecutive failures, or at once if it's never probed successfully
+     */
+    static private void fail(String server, Status status, Exception cause) {
+        status.failures++;
+        if (!status.probed || (status.healthy && status.failures >= Configuration.KEIKAI_UNHEALTHY_THRESHOLD)) {
+            if (status.healthy) {
+                logger.warn("-> Keikai server " + server + " is unhealthy: " + cause);
+            }
+            status.healthy = false;
+        }
+    }
+
+    static private class Status {
+        private volatile boolean probed = false;
+        private volatile boolean healthy = false;
+        private volatile int failures = 0;
+        private volatile long latencyMs = -1;
+    }
+}
@@ -0,0 +1,39 @@
+package io.keikai.tutorial.web;
+
+import io.keikai.tutorial.Configuration;
+import io.keikai.tutorial.app.ClientRegistry;
+
+import java.util.List;
+
+/**
+ * Route requests across the Keikai servers in {@link Configuration#KEIKAI_SERVERS} with the least-connections
+ * policy: choose the healthy server with the fewest live spreadsheet clients.
+ */
+public class KeikaiServerBalancer {
+
+    private KeikaiServerBalancer() {
+    }
+
+    static public List<String> getServers() {
+        return Configuration.KEIKAI_SERVERS;
+    }
+
+    /**
+     * @return the healthy server with the fewest live clients, the first one wins a tie. null if no server is healthy.
+     */
+    static public String select() {
+        String selected = null;
+        int leastClients = Integer.MAX_VALUE;
+        for (String server : getServers()) {
+            if (!KeikaiHealthChecker.isHealthy(server)) {
+                continue;
+            }
+            int nClients = ClientRegistry.getLiveClientCount(server);
+            if (nClients < leastClients) {
+                selected = server;
+                leastClients = nClients;
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,38 @@
+package io.keikai.tutorial.web;
+
+import io.keikai.tutorial.metrics.Metrics;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.*;
+import java.io.*;
+import java.net.InetAddress;
+
+/**
+ * expose metrics in Prometheus text format to local requests only, e.g. http://localhost:8080/tutorial/metrics <br/>
+ * Respond 404 if metrics are disabled or the request comes from another host.
+ */
+@WebServlet("/metrics")
+public class MetricsServlet extends HttpServlet {
+    static private final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse resp) throws ServletException, IOException {
+        if (!Metrics.ENABLED || !isLocal(request)) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        resp.setContentType(CONTENT_TYPE);
+        Writer writer = resp.getWriter();
+        Metrics.write(writer);
+        writer.flush();
+    }
+
+    private boolean isLocal(HttpServletRequest request) {
+        try {
+            return InetAddress.getByName(request.getRemoteAddr()).isLoopbackAddress();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package io.keikai.tutorial.web;
 
-import io.keikai.client.api.AbortedException;
+import io.keikai.client.api.Spreadsheet;
 import io.keikai.tutorial.Configuration;
 import io.keikai.tutorial.app.*;
 
@@ -18,14 +18,22 @@ public class WorkflowServlet extends BaseServlet {
 
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse resp) throws ServletException, IOException {
-        super.doGet(request, resp);
-        MyWorkflow myWorkflow = new MyWorkflow(keikaiServerAddress);
-        myWorkflow.init(defaultXlsx, defaultFile);
+        if (!selectServer(request, resp)) {
+            return;
+        }
+        Spreadsheet spreadsheet = takeClient(request);
+        MyWorkflow myWorkflow = new MyWorkflow(spreadsheet);
+        if (!initClient(request, resp, spreadsheet, () -> {
+            myWorkflow.init(defaultXlsx, defaultFile);
+            return null;
+        })) {
+            return;
+        }
 
         // pass the anchor DOM element id for rendering keikai
         String keikaiJsURI = myWorkflow.getJavaScriptURI("spreadsheet");
         // store as an attribute to be accessed by EL on a JSP
         request.setAttribute(Configuration.KEIKAI_JS, keikaiJsURI);
-        request.getRequestDispatcher("/myworkflow/workflow.jsp").forward(request, resp);
+        forward(request, resp, "/myworkflow/workflow.jsp");
     }
 }
@@ -1,3 +1,4 @@
+-- a database created before schema migrations was re-seeded on every startup, so its tables are replaced
 DROP TABLE tutorial IF EXISTS;
 CREATE TABLE tutorial (
     id INTEGER IDENTITY PRIMARY KEY,
@@ -9,4 +10,12 @@ CREATE TABLE tutorial (
 INSERT INTO tutorial (category, quantity, subtotal) VALUES ('Transportation', 10, 2400);
 INSERT INTO tutorial (category, quantity, subtotal) VALUES ('Food', 16, 15);
 INSERT INTO tutorial (category, quantity, subtotal) VALUES ('Lodging', 12, 160);
-INSERT INTO tutorial (category, quantity, subtotal) VALUES ('Entertainment', 11, 120);
\ No newline at end of file
+INSERT INTO tutorial (category, quantity, subtotal) VALUES ('Entertainment', 11, 120);
+
+DROP TABLE tutorial_summary IF EXISTS;
+CREATE TABLE tutorial_summary (
+    category VARCHAR(50) PRIMARY KEY,
+    quantity BIGINT NOT NULL,
+    subtotal BIGINT NOT NULL
+);
+INSERT INTO tutorial_summary (category, quantity, subtotal) SELECT category, SUM(quantity), SUM(subtotal) FROM tutorial GROUP BY category;
\ No newline at end of file
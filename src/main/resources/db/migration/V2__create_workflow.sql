@@ -0,0 +1,25 @@
+-- a database created before schema migrations was re-seeded on every startup, so its tables are replaced
+DROP TABLE workflow IF EXISTS;
+CREATE TABLE workflow(
+    id INTEGER IDENTITY PRIMARY KEY,
+    formHash CHAR(64) NOT NULL,
+    formName VARCHAR(30) NOT NULL,
+    owner VARCHAR(40) NOT NULL,
+    state VARCHAR(20) NOT NULL,
+    lastUpdate TIMESTAMP NOT NULL
+);
+DROP TABLE form_content IF EXISTS;
+CREATE TABLE form_content(
+    hash CHAR(64) PRIMARY KEY,
+    content BLOB NOT NULL
+);
+DROP TABLE submission_field IF EXISTS;
+CREATE TABLE submission_field(
+    submissionId INTEGER NOT NULL,
+    name VARCHAR(40) NOT NULL,
+    textValue VARCHAR(1000),
+    numberValue DOUBLE,
+    dateValue DATE,
+    PRIMARY KEY (submissionId, name)
+);
+CREATE INDEX submission_field_name ON submission_field(name, submissionId);
\ No newline at end of file
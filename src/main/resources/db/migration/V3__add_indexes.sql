@@ -0,0 +1,5 @@
+-- access paths of the submission list: newest first, optionally filtered by state or owner
+CREATE INDEX workflow_lastUpdate ON workflow(lastUpdate, id);
+CREATE INDEX workflow_state_lastUpdate ON workflow(state, lastUpdate, id);
+CREATE INDEX workflow_owner ON workflow(owner, lastUpdate, id);
+CREATE INDEX tutorial_category ON tutorial(category);
\ No newline at end of file
@@ -0,0 +1,3 @@
+-- keep the dashboard rows in the order categories first appear, like the former GROUP BY query on tutorial
+ALTER TABLE tutorial_summary ADD COLUMN firstId INTEGER;
+UPDATE tutorial_summary s SET firstId = (SELECT MIN(t.id) FROM tutorial t WHERE t.category = s.category);
@@ -0,0 +1,3 @@
+-- the spool file a submission was written from, so a spool file left after its commit isn't inserted again
+ALTER TABLE workflow ADD COLUMN spoolKey VARCHAR(100);
+ALTER TABLE workflow ADD CONSTRAINT workflow_spoolKey UNIQUE (spoolKey);
@@ -5,3 +5,8 @@ Please visit the URL below:
 <li><a href="app">Budget Expense Summary App</a></li>
 <li><a href="workflow">Workflow App</a></li>
 </ul>
+Download tables:
+<ul>
+<li>Submissions: <a href="export/workflow.xlsx">xlsx</a> / <a href="export/workflow.csv">csv</a></li>
+<li>Expenses: <a href="export/expense.xlsx">xlsx</a> / <a href="export/expense.csv">csv</a></li>
+</ul>
@@ -0,0 +1,12 @@
+<%@ page language="java" contentType="text/html; charset=UTF-8" pageEncoding="UTF-8" isErrorPage="true"%>
+<!DOCTYPE html>
+<html lang="en">
+<head>
+    <meta charset="UTF-8"/>
+    <link rel='stylesheet' href='${pageContext.request.contextPath}/css/tutorial.css'/>
+    <title>Keikai Server Unavailable</title>
+</head>
+<body>
+    ${requestScope['javax.servlet.error.message']}, please try again later.
+</body>
+</html>
@@ -0,0 +1,88 @@
+package io.keikai.tutorial.web;
+
+import com.sun.net.httpserver.HttpServer;
+import io.keikai.tutorial.Configuration;
+import org.junit.*;
+
+import java.io.IOException;
+import java.net.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * run against stub servers on the loopback address, no Keikai server is required
+ */
+public class KeikaiHealthCheckerTest {
+    static private final long CALL_TIMEOUT_MS = 200;
+    // accepts connections into its backlog but never answers
+    private ServerSocket silentServer;
+    private HttpServer answeringServer;
+
+    @Before
+    public void startServers() throws IOException {
+        silentServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        answeringServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        answeringServer.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        answeringServer.start();
+    }
+
+    @After
+    public void stopServers() throws IOException {
+        silentServer.close();
+        answeringServer.stop(0);
+    }
+
+    @Test
+    public void silentServerIsUnhealthyAtFirstUse() {
+        long start = System.nanoTime();
+        assertFalse(KeikaiHealthChecker.isHealthy(addressOf(silentServer.getLocalPort())));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // connecting succeeds in the backlog, then reading times out
+        assertTrue("took " + elapsedMs + "ms", elapsedMs < Configuration.KEIKAI_CONNECT_TIMEOUT_MS * 2 + 1000);
+    }
+
+    @Test
+    public void answeringServerIsHealthyAtFirstUse() {
+        assertTrue(KeikaiHealthChecker.isHealthy(addressOf(answeringServer.getAddress().getPort())));
+    }
+
+    @Test
+    public void callToSilentServerTimesOut() throws Exception {
+        String server = addressOf(silentServer.getLocalPort());
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), silentServer.getLocalPort())) {
+            long start = System.nanoTime();
+            try {
+                KeikaiCalls.call(server, CALL_TIMEOUT_MS, () -> socket.getInputStream().read());
+                fail("a call to a silent server should time out");
+            } catch (TimeoutException expected) {
+                long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                assertTrue("took " + elapsedMs + "ms", elapsedMs < CALL_TIMEOUT_MS + 1000);
+            }
+        }
+    }
+
+    @Test
+    public void timedOutCallsMakeServerUnhealthy() throws Exception {
+        String server = addressOf(answeringServer.getAddress().getPort());
+        assertTrue(KeikaiHealthChecker.isHealthy(server));
+        for (int i = 0; i < Configuration.KEIKAI_UNHEALTHY_THRESHOLD; i++) {
+            try {
+                KeikaiCalls.call(server, CALL_TIMEOUT_MS, () -> {
+                    Thread.sleep(CALL_TIMEOUT_MS * 10);
+                    return null;
+                });
+                fail("a call longer than the timeout should time out");
+            } catch (TimeoutException expected) {
+            }
+        }
+        assertFalse(KeikaiHealthChecker.isHealthy(server));
+    }
+
+    static private String addressOf(int port) {
+        return "http://127.0.0.1:" + port;
+    }
+}